@@ -0,0 +1,57 @@
+package com.swx.mcompanion.bench;
+
+import com.swx.mcompanion.client.gui.TextMeasurer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 不依赖游戏字体的文本测量器，宽度近似Minecraft默认字体：
+ * ASCII字符6像素，CJK等宽字符9像素；优先在空格处换行，必要时在任意字符处断行。
+ */
+public class MonospaceTextMeasurer implements TextMeasurer {
+
+    @Override
+    public int width(String text) {
+        int width = 0;
+        for (int i = 0; i < text.length(); i++) {
+            width += charWidth(text.charAt(i));
+        }
+        return width;
+    }
+
+    @Override
+    public List<String> split(String text, int maxWidth) {
+        List<String> lines = new ArrayList<>();
+        int lineStart = 0;
+        int lastSpace = -1;
+        int width = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                lines.add(text.substring(lineStart, i));
+                lineStart = i + 1;
+                lastSpace = -1;
+                width = 0;
+                continue;
+            }
+            if (c == ' ') {
+                lastSpace = i;
+            }
+            width += charWidth(c);
+            if (width > maxWidth && i > lineStart) {
+                int breakAt = lastSpace > lineStart ? lastSpace : i;
+                lines.add(text.substring(lineStart, breakAt));
+                lineStart = breakAt == lastSpace ? breakAt + 1 : breakAt;
+                lastSpace = -1;
+                width = width(text.substring(lineStart, i + 1));
+            }
+        }
+        lines.add(text.substring(lineStart));
+        return lines;
+    }
+
+    private static int charWidth(char c) {
+        return c < 0x2E80 ? 6 : 9;
+    }
+}
@@ -0,0 +1,57 @@
+package com.swx.mcompanion.client.gui;
+
+import com.swx.mcompanion.bench.MonospaceTextMeasurer;
+import com.swx.mcompanion.bench.ReplyCorpus;
+import com.swx.mcompanion.client.gui.AiChatScreen.ChatMessage;
+import com.swx.mcompanion.client.gui.AiChatScreen.MarkdownElement;
+import com.swx.mcompanion.client.gui.AiChatScreen.MarkdownParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+/**
+ * 布局基准，使用与字体无关的测量器在无界面环境下运行。
+ */
+@State(Scope.Benchmark)
+public class LayoutBenchmark {
+
+    @Param({"SHORT_CHAT", "LONG_LIST", "BIG_CODE", "CJK"})
+    public ReplyCorpus corpus;
+
+    @Param({"240", "480"})
+    public int width;
+
+    private final TextMeasurer measurer = new MonospaceTextMeasurer();
+    private List<MarkdownElement> elements;
+    private ChatMessage message;
+    private LayoutCache warmCache;
+
+    @Setup
+    public void setup() {
+        elements = MarkdownParser.parseMarkdown(corpus.text()).elements;
+        message = new ChatMessage(corpus.text(), false);
+        warmCache = new LayoutCache();
+        warmCache.get(message, measurer, width);
+    }
+
+    @Benchmark
+    public int contentHeight() {
+        return MarkdownParser.calculateContentHeight(elements, measurer, width);
+    }
+
+    // 窗口尺寸变化后的重新布局
+    @Benchmark
+    public Object layoutCold() {
+        return MessageLayout.build(message, measurer, width, null);
+    }
+
+    // 每帧从缓存取布局
+    @Benchmark
+    public Object layoutCached() {
+        return warmCache.get(message, measurer, width);
+    }
+}
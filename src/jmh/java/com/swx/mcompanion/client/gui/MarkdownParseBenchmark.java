@@ -0,0 +1,45 @@
+package com.swx.mcompanion.client.gui;
+
+import com.swx.mcompanion.bench.ReplyCorpus;
+import com.swx.mcompanion.client.gui.AiChatScreen.MarkdownParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Markdown解析的基准：整段解析，以及按token流式追加的增量解析。
+ */
+@State(Scope.Benchmark)
+public class MarkdownParseBenchmark {
+
+    @Param({"SHORT_CHAT", "LONG_LIST", "BIG_CODE", "CJK"})
+    public ReplyCorpus corpus;
+
+    private String text;
+    private String[] tokens;
+
+    @Setup
+    public void setup() {
+        text = corpus.text();
+        tokens = corpus.tokens();
+    }
+
+    @Benchmark
+    public Object parseFull() {
+        return MarkdownParser.parseMarkdown(text);
+    }
+
+    // 整条回复按token流式到达，每个token后读取一次解析结果
+    @Benchmark
+    public int parseStreaming() {
+        IncrementalMarkdownParser parser = new IncrementalMarkdownParser();
+        int elements = 0;
+        for (String token : tokens) {
+            parser.append(token);
+            elements += parser.getFormattedContent().elements.size();
+        }
+        return elements;
+    }
+}
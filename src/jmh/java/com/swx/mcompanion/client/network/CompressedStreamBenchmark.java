@@ -0,0 +1,186 @@
+package com.swx.mcompanion.client.network;
+
+import com.sun.net.httpserver.HttpServer;
+import com.swx.mcompanion.bench.ReplyCorpus;
+import com.swx.mcompanion.config.ClientConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 压缩响应的端到端基准：本地模拟服务器逐token推送SSE，按 eventsPerFlush 刷新压缩流，
+ * 客户端走完整的发送、解压和SSE解码路径。
+ * firstToken 衡量首字延迟，fullReply 衡量完整回复的耗时；
+ * 每次运行结束时打印每条回复在线上传输的响应体字节数。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompressedStreamBenchmark {
+
+    @Param({"identity", "gzip", "deflate"})
+    public String encoding;
+
+    @Param({"LONG_LIST", "CJK"})
+    public ReplyCorpus corpus;
+
+    // 服务端每推送几个事件刷新一次：1 与逐token推送一致，更大的值用首字延迟换压缩率
+    @Param({"1", "16"})
+    public int eventsPerFlush;
+
+    private HttpServer server;
+    private List<byte[]> events;
+    private SimpleAiChatClient client;
+    private final AtomicLong wireBytes = new AtomicLong();
+    private final AtomicLong replies = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        events = new ArrayList<>();
+        for (String token : corpus.tokens()) {
+            // token中的换行以空data行表示，与当前客户端的解析方式一致
+            String[] parts = token.split("\n", -1);
+            for (int i = 0; i < parts.length; i++) {
+                if (i > 0) {
+                    events.add("data:\n\n".getBytes(StandardCharsets.UTF_8));
+                }
+                if (!parts[i].isEmpty()) {
+                    events.add(("data:" + parts[i] + "\n\n").getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+        events.add("data:[DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+            if (!encoding.equals("identity")) {
+                exchange.getResponseHeaders().add("Content-Encoding", encoding);
+            }
+            exchange.sendResponseHeaders(200, 0);
+            CountingOutputStream counter = new CountingOutputStream(exchange.getResponseBody());
+            // 刷新时 SYNC_FLUSH，客户端立即能解出已推送的事件
+            OutputStream out = switch (encoding) {
+                case "gzip" -> new GZIPOutputStream(counter, true);
+                case "deflate" -> new DeflaterOutputStream(counter, new Deflater(), true);
+                default -> counter;
+            };
+            try (out) {
+                for (int i = 0; i < events.size(); i++) {
+                    out.write(events.get(i));
+                    if ((i + 1) % eventsPerFlush == 0) {
+                        out.flush();
+                    }
+                }
+            } catch (IOException e) {
+                return; // firstToken 拿到第一段后就断开连接
+            }
+            wireBytes.addAndGet(counter.count);
+            replies.incrementAndGet();
+        });
+        server.start();
+
+        ClientConfig.setServerUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/api");
+        ClientConfig.setApiKey("bench");
+        client = new SimpleAiChatClient();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        long count = replies.get();
+        if (count > 0) {
+            System.out.printf("%n[%s/%s/flush=%d] 每条回复的响应体字节数: %d%n",
+                    encoding, corpus, eventsPerFlush, wireBytes.get() / count);
+        }
+        server.stop(0);
+        ChatTransport.shutdown();
+    }
+
+    @Benchmark
+    public String firstToken() throws Exception {
+        CompletableFuture<String> first = new CompletableFuture<>();
+        ChatRequest request = client.sendMessage("bench", listener(first, null));
+        String delta = first.get(10, TimeUnit.SECONDS);
+        request.cancel();
+        return delta;
+    }
+
+    @Benchmark
+    public String fullReply() throws Exception {
+        CompletableFuture<String> done = new CompletableFuture<>();
+        client.sendMessage("bench", listener(null, done));
+        return done.get(30, TimeUnit.SECONDS);
+    }
+
+    private static StreamListener listener(CompletableFuture<String> first, CompletableFuture<String> done) {
+        return new StreamListener() {
+            @Override
+            public void onDelta(String delta, long sequence, Supplier<String> snapshot) {
+                if (first != null) {
+                    first.complete(delta);
+                }
+            }
+
+            @Override
+            public void onComplete(String fullMessage) {
+                if (done != null) {
+                    done.complete(fullMessage);
+                }
+            }
+
+            @Override
+            public void onError(String error) {
+                IllegalStateException failure = new IllegalStateException(error);
+                if (first != null) {
+                    first.completeExceptionally(failure);
+                }
+                if (done != null) {
+                    done.completeExceptionally(failure);
+                }
+            }
+        };
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
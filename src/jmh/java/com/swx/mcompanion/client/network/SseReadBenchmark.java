@@ -0,0 +1,90 @@
+package com.swx.mcompanion.client.network;
+
+import com.swx.mcompanion.bench.ReplyCorpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * SSE读取路径的基准：把语料编码成服务端逐token推送的data行，
+ * 按 HttpClient 交付响应体的方式切成数据块，交给与客户端相同的解码器和事件处理。
+ */
+@State(Scope.Benchmark)
+public class SseReadBenchmark {
+    // HttpClient 每次交付的数据块大小和每批的块数
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final int CHUNKS_PER_BATCH = 2;
+
+    @Param({"SHORT_CHAT", "LONG_LIST", "BIG_CODE", "CJK"})
+    public ReplyCorpus corpus;
+
+    private final List<List<ByteBuffer>> batches = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        StringBuilder sse = new StringBuilder();
+        for (String token : corpus.tokens()) {
+            // token中的换行以空data行表示，与当前客户端的解析方式一致
+            String[] parts = token.split("\n", -1);
+            for (int i = 0; i < parts.length; i++) {
+                if (i > 0) {
+                    sse.append("data:\n\n");
+                }
+                if (!parts[i].isEmpty()) {
+                    sse.append("data:").append(parts[i]).append("\n\n");
+                }
+            }
+        }
+        sse.append("data:[DONE]\n\n");
+        byte[] body = sse.toString().getBytes(StandardCharsets.UTF_8);
+
+        batches.clear();
+        List<ByteBuffer> batch = new ArrayList<>();
+        for (int position = 0; position < body.length; position += CHUNK_SIZE) {
+            int length = Math.min(CHUNK_SIZE, body.length - position);
+            batch.add(ByteBuffer.wrap(body, position, length).slice().asReadOnlyBuffer());
+            if (batch.size() == CHUNKS_PER_BATCH) {
+                batches.add(List.copyOf(batch));
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            batches.add(List.copyOf(batch));
+        }
+    }
+
+    @Benchmark
+    public String readStream(Blackhole blackhole) {
+        ChatEventHandler events = new ChatEventHandler(new StreamListener() {
+            @Override
+            public void onDelta(String delta, long sequence, Supplier<String> snapshot) {
+                blackhole.consume(delta);
+            }
+
+            @Override
+            public void onComplete(String fullMessage) {
+            }
+
+            @Override
+            public void onError(String error) {
+            }
+        });
+        SseDecoder decoder = new SseDecoder(events, SimpleAiChatClient.STRIP_LEADING_SPACE);
+        for (List<ByteBuffer> batch : batches) {
+            for (ByteBuffer chunk : batch) {
+                // 解码器会消费数据块，每次调用用一份新的视图
+                decoder.feed(chunk.duplicate());
+            }
+        }
+        return events.getFullMessage();
+    }
+}
@@ -1,6 +1,9 @@
 package com.swx.mcompanion;
 
 import com.mojang.logging.LogUtils;
+import com.swx.mcompanion.client.metrics.MetricsOverlay;
+import com.swx.mcompanion.client.network.ChatTransport;
+import com.swx.mcompanion.config.ClientConfig;
 import net.minecraft.client.Minecraft;
 import net.minecraft.core.registries.Registries;
 import net.minecraft.world.food.FoodProperties;
@@ -13,6 +16,7 @@ import net.minecraft.world.level.block.Blocks;
 import net.minecraft.world.level.block.state.BlockBehaviour;
 import net.minecraft.world.level.material.MapColor;
 import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.client.event.RegisterGuiOverlaysEvent;
 import net.minecraftforge.client.event.RegisterKeyMappingsEvent;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.BuildCreativeModeTabContentsEvent;
@@ -24,6 +28,7 @@ import net.minecraftforge.fml.config.ModConfig;
 import net.minecraftforge.fml.event.lifecycle.FMLClientSetupEvent;
 import net.minecraftforge.fml.event.lifecycle.FMLCommonSetupEvent;
 import net.minecraftforge.fml.javafmlmod.FMLJavaModLoadingContext;
+import net.minecraftforge.fml.loading.FMLPaths;
 import net.minecraftforge.registries.DeferredRegister;
 import net.minecraftforge.registries.ForgeRegistries;
 import net.minecraftforge.registries.RegistryObject;
@@ -120,6 +125,10 @@ public class MCompanion
         @SubscribeEvent
         public static void onClientSetup(FMLClientSetupEvent event)
         {
+            // 读取客户端配置，之前使用的是默认配置
+            ClientConfig.load(FMLPaths.CONFIGDIR.get());
+            // 提前解析服务器域名并建立连接，缩短第一条消息的等待
+            ChatTransport.warmUp();
             // Some client setup code
             LOGGER.info("HELLO FROM CLIENT SETUP");
             LOGGER.info("MINECRAFT NAME >> {}", Minecraft.getInstance().getUser().getName());
@@ -130,6 +139,14 @@ public class MCompanion
         {
             // 注册按键绑定
             event.register(com.swx.mcompanion.client.KeyBindings.OPEN_CHAT_KEY);
+            event.register(com.swx.mcompanion.client.KeyBindings.TOGGLE_METRICS_KEY);
+        }
+
+        @SubscribeEvent
+        public static void onRegisterGuiOverlays(RegisterGuiOverlaysEvent event)
+        {
+            // 性能指标调试面板
+            event.registerAboveAll("metrics", MetricsOverlay.INSTANCE);
         }
     }
 }
@@ -1,9 +1,17 @@
 package com.swx.mcompanion.client;
 
+import com.swx.mcompanion.client.chat.ChatHistoryStore;
 import com.swx.mcompanion.client.gui.AiChatScreen;
+import com.swx.mcompanion.client.gui.ChatSessionManager;
+import com.swx.mcompanion.client.metrics.MetricsLog;
+import com.swx.mcompanion.client.metrics.MetricsOverlay;
+import com.swx.mcompanion.client.network.ChatTransport;
+import com.swx.mcompanion.config.ClientConfig;
 import net.minecraft.client.Minecraft;
 import net.minecraftforge.api.distmarker.Dist;
 import net.minecraftforge.client.event.InputEvent;
+import net.minecraftforge.event.GameShuttingDownEvent;
+import net.minecraftforge.event.TickEvent;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 import net.minecraftforge.fml.common.Mod;
 
@@ -19,5 +27,27 @@ public class ClientEventHandler {
             // 打开AI聊天界面
             minecraft.setScreen(new AiChatScreen());
         }
+        if (KeyBindings.TOGGLE_METRICS_KEY.consumeClick()) {
+            MetricsOverlay.toggle();
+        }
+    }
+
+    @SubscribeEvent
+    public static void onClientTick(TickEvent.ClientTickEvent event) {
+        // 聊天界面关闭期间，后台回复在客户端tick中继续处理
+        if (event.phase == TickEvent.Phase.END) {
+            ChatSessionManager.onClientTick();
+            MetricsLog.tick();
+        }
+    }
+
+    @SubscribeEvent
+    public static void onGameShuttingDown(GameShuttingDownEvent event) {
+        // 游戏退出时先结束进行中的回复，写完聊天记录、未保存的配置和最后一段性能指标，再关闭共享的HTTP连接和网络线程池
+        ChatSessionManager.shutdown();
+        ChatHistoryStore.shutdown();
+        ClientConfig.flush();
+        MetricsLog.shutdown();
+        ChatTransport.shutdown();
     }
 } 
\ No newline at end of file
@@ -8,6 +8,7 @@ import net.minecraftforge.client.settings.KeyModifier;
 public class KeyBindings {
     public static final String KEY_CATEGORY_MCOMPANION = "key.category.mcompanion";
     public static final String KEY_OPEN_CHAT = "key.mcompanion.open_chat";
+    public static final String KEY_TOGGLE_METRICS = "key.mcompanion.toggle_metrics";
 
     public static final KeyMapping OPEN_CHAT_KEY = new KeyMapping(
             KEY_OPEN_CHAT,
@@ -17,4 +18,13 @@ public class KeyBindings {
             InputConstants.KEY_MINUS, // 默认为 "-" 键
             KEY_CATEGORY_MCOMPANION
     );
+
+    public static final KeyMapping TOGGLE_METRICS_KEY = new KeyMapping(
+            KEY_TOGGLE_METRICS,
+            KeyConflictContext.UNIVERSAL,
+            KeyModifier.NONE,
+            InputConstants.Type.KEYSYM,
+            InputConstants.KEY_F8, // 默认为 F8 键，打开或关闭性能指标面板
+            KEY_CATEGORY_MCOMPANION
+    );
 } 
\ No newline at end of file
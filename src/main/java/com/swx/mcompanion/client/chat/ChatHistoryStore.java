@@ -0,0 +1,583 @@
+package com.swx.mcompanion.client.chat;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.swx.mcompanion.client.metrics.LogSampler;
+import com.swx.mcompanion.client.network.NetworkExecutor;
+import net.minecraft.client.Minecraft;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 聊天记录的磁盘存储。
+ * 每个会话一个只追加的JSON行日志（{@code <会话ID>.jsonl}），流式回复的增量随到随写；
+ * 另有一个记录会话元数据的 {@code index.json} 供侧边栏使用，通过临时文件加原子替换写入。
+ * 游戏崩溃时日志最后一行可能只写了一半，读取时会跳过它，重新打开写入前会先补上换行。
+ * 读取从文件末尾向前分页，打开很长的会话只需要读最近的一小段。
+ * 所有文件操作都按提交顺序在网络/IO线程池上串行执行，不阻塞渲染线程。
+ */
+public final class ChatHistoryStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChatHistoryStore.class);
+    private static final LogSampler CORRUPT_LINE_LOG = new LogSampler(10, 1000);
+    private static final Gson GSON = new Gson();
+    private static final String INDEX_FILE = "index.json";
+    private static final String JOURNAL_SUFFIX = ".jsonl";
+    private static final int READ_BLOCK_SIZE = 8192;
+    private static final int MAX_OPEN_JOURNALS = 4;
+    private static ChatHistoryStore instance;
+
+    private final Path directory;
+    private final SerialExecutor writer;
+    // 会话元数据，访问时需持有 this 锁
+    private final Map<String, SessionInfo> sessions = new LinkedHashMap<>();
+    private boolean indexWriteQueued = false;
+    // 以下字段只在写入线程上访问
+    private final LinkedHashMap<String, FileChannel> openJournals = new LinkedHashMap<>(8, 0.75f, true);
+    // 正在流式写入的回复已写入的文本，结束时用来判断最终内容是否需要另行记录
+    private final Map<String, StringBuilder> openReplies = new HashMap<>();
+
+    public ChatHistoryStore(Path directory, Executor executor) {
+        this.directory = directory;
+        this.writer = new SerialExecutor(executor);
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            LOGGER.error("无法创建聊天记录目录: {}", directory, e);
+        }
+        loadIndex();
+        recoverJournals();
+    }
+
+    public static synchronized ChatHistoryStore get() {
+        if (instance == null) {
+            Path directory = Paths.get(Minecraft.getInstance().gameDirectory.getAbsolutePath(), "mcompanion", "history");
+            instance = new ChatHistoryStore(directory, NetworkExecutor.get());
+        }
+        return instance;
+    }
+
+    /**
+     * 写完所有待写入的记录和索引后关闭，游戏退出时调用。
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.close();
+            instance = null;
+        }
+    }
+
+    // ---- 会话元数据 ----
+
+    /**
+     * 所有会话的元数据，最近更新的排在前面。
+     */
+    public synchronized List<SessionInfo> listSessions() {
+        List<SessionInfo> result = new ArrayList<>(sessions.values());
+        result.sort(Comparator.comparingLong((SessionInfo info) -> info.updatedTime).reversed());
+        return result;
+    }
+
+    public synchronized SessionInfo getSession(String sessionId) {
+        return sessions.get(sessionId);
+    }
+
+    public void createSession(String sessionId, String title, long createdTime) {
+        synchronized (this) {
+            if (sessions.containsKey(sessionId)) {
+                return;
+            }
+            sessions.put(sessionId, new SessionInfo(sessionId, title, createdTime, createdTime, 0, null, 0));
+        }
+        JsonObject record = new JsonObject();
+        record.addProperty("op", "meta");
+        record.addProperty("title", title);
+        record.addProperty("created", createdTime);
+        writer.execute(() -> writeRecord(sessionId, record, true));
+        scheduleIndexWrite();
+    }
+
+    public void setTitle(String sessionId, String title) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            SessionInfo info = sessions.get(sessionId);
+            if (info == null || info.title.equals(title)) {
+                return;
+            }
+            sessions.put(sessionId, info.withTitle(title, now));
+        }
+        JsonObject record = new JsonObject();
+        record.addProperty("op", "meta");
+        record.addProperty("title", title);
+        writer.execute(() -> writeRecord(sessionId, record, false));
+        scheduleIndexWrite();
+    }
+
+    // ---- 消息写入 ----
+
+    /**
+     * 追加一条完整的消息，返回它在会话中的序号。
+     */
+    public int appendMessage(String sessionId, boolean isUser, long timestamp, String content) {
+        int index = nextIndex(sessionId, timestamp, content);
+        JsonObject record = addRecord(index, isUser, timestamp, content);
+        writer.execute(() -> writeRecord(sessionId, record, true));
+        scheduleIndexWrite();
+        return index;
+    }
+
+    /**
+     * 开始一条流式回复，之后用 {@link #appendReply} 写入增量，{@link #endReply} 结束。
+     */
+    public int beginReply(String sessionId, long timestamp) {
+        int index = nextIndex(sessionId, timestamp, "");
+        JsonObject record = addRecord(index, false, timestamp, "");
+        record.addProperty("open", true);
+        writer.execute(() -> {
+            openReplies.put(replyKey(sessionId, index), new StringBuilder());
+            writeRecord(sessionId, record, false);
+        });
+        scheduleIndexWrite();
+        return index;
+    }
+
+    public void appendReply(String sessionId, int index, String delta) {
+        if (delta.isEmpty()) {
+            return;
+        }
+        JsonObject record = new JsonObject();
+        record.addProperty("op", "app");
+        record.addProperty("i", index);
+        record.addProperty("d", delta);
+        writer.execute(() -> {
+            StringBuilder written = openReplies.get(replyKey(sessionId, index));
+            if (written != null) {
+                written.append(delta);
+            }
+            writeRecord(sessionId, record, false);
+        });
+    }
+
+    /**
+     * 结束流式回复。最终内容与已写入的增量不一致时（例如服务端重发了全文）才把全文另行记录。
+     */
+    public void endReply(String sessionId, int index, String finalContent) {
+        writer.execute(() -> {
+            StringBuilder written = openReplies.remove(replyKey(sessionId, index));
+            JsonObject record = new JsonObject();
+            record.addProperty("op", "end");
+            record.addProperty("i", index);
+            if (written == null || !written.toString().equals(finalContent)) {
+                record.addProperty("c", finalContent);
+            }
+            writeRecord(sessionId, record, true);
+        });
+    }
+
+    // ---- 读取 ----
+
+    /**
+     * 读取会话最近的 limit 条消息。在写入线程上执行，结果包含此前提交的所有写入。
+     */
+    public CompletableFuture<HistoryPage> loadLatest(String sessionId, int limit) {
+        return CompletableFuture.supplyAsync(
+                () -> readBackward(sessionId, Long.MAX_VALUE, limit, new HashMap<>(), new HashMap<>()), writer);
+    }
+
+    /**
+     * 读取 page 之前更早的 limit 条消息。
+     */
+    public CompletableFuture<HistoryPage> loadOlder(HistoryPage page, int limit) {
+        if (!page.hasOlder()) {
+            return CompletableFuture.completedFuture(
+                    new HistoryPage(page.sessionId, Collections.emptyList(), 0, Collections.emptyMap(), Collections.emptyMap()));
+        }
+        return CompletableFuture.supplyAsync(() -> readBackward(page.sessionId, page.nextOffset, limit,
+                new HashMap<>(page.carriedAppends), new HashMap<>(page.carriedEnds)), writer);
+    }
+
+    /**
+     * 等待此前提交的所有写入完成。
+     */
+    public CompletableFuture<Void> flush() {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        writer.execute(() -> done.complete(null));
+        return done;
+    }
+
+    public void close() {
+        writer.execute(() -> {
+            writeIndex();
+            for (FileChannel channel : openJournals.values()) {
+                closeQuietly(channel);
+            }
+            openJournals.clear();
+        });
+        try {
+            flush().get(3, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            LOGGER.warn("等待聊天记录写入完成超时", e);
+        }
+    }
+
+    // 从 end 位置向前按块读取，直到凑满 limit 条消息或读到文件开头
+    private HistoryPage readBackward(String sessionId, long end, int limit,
+                                     Map<Integer, List<String>> appends, Map<Integer, String> ends) {
+        List<StoredMessage> messages = new ArrayList<>();
+        long nextOffset = 0;
+        Path path = journalPath(sessionId);
+        if (Files.exists(path)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long position = Math.min(end, channel.size());
+                byte[] leftover = new byte[0];
+                // 第一个换行之后的内容要么为空，要么是崩溃时只写了一半的记录，一律跳过
+                boolean firstSegment = true;
+                scan:
+                while (position > 0) {
+                    int length = (int) Math.min(READ_BLOCK_SIZE, position);
+                    position -= length;
+                    byte[] chunk = new byte[length + leftover.length];
+                    ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, length);
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer, position + buffer.position()) < 0) {
+                            break;
+                        }
+                    }
+                    System.arraycopy(leftover, 0, chunk, length, leftover.length);
+
+                    int lineEnd = chunk.length;
+                    for (int i = length - 1; i >= 0; i--) {
+                        if (chunk[i] != '\n') {
+                            continue;
+                        }
+                        if (!firstSegment && readRecord(chunk, i + 1, lineEnd, appends, ends, messages)
+                                && messages.size() >= limit) {
+                            nextOffset = position + i + 1;
+                            break scan;
+                        }
+                        firstSegment = false;
+                        lineEnd = i;
+                    }
+                    leftover = Arrays.copyOfRange(chunk, 0, lineEnd);
+                }
+                if (position == 0 && nextOffset == 0 && !firstSegment) {
+                    readRecord(leftover, 0, leftover.length, appends, ends, messages);
+                }
+            } catch (IOException e) {
+                LOGGER.error("读取聊天记录失败: {}", sessionId, e);
+            }
+        }
+        Collections.reverse(messages);
+        return new HistoryPage(sessionId, messages, nextOffset, appends, ends);
+    }
+
+    // 解析一行记录，返回是否得到了一条消息（倒序读取：增量和结束记录总是先于所属消息被读到）
+    private static boolean readRecord(byte[] bytes, int from, int to, Map<Integer, List<String>> appends,
+                                      Map<Integer, String> ends, List<StoredMessage> out) {
+        JsonObject record = parseRecord(new String(bytes, from, to - from, StandardCharsets.UTF_8));
+        if (record == null || !record.has("i")) {
+            return false;
+        }
+        int index = record.get("i").getAsInt();
+        switch (record.get("op").getAsString()) {
+            case "app":
+                appends.computeIfAbsent(index, key -> new ArrayList<>()).add(record.get("d").getAsString());
+                return false;
+            case "end":
+                ends.put(index, record.has("c") ? record.get("c").getAsString() : null);
+                return false;
+            case "add":
+                boolean ended = ends.containsKey(index);
+                String override = ends.remove(index);
+                List<String> parts = appends.remove(index);
+                String content;
+                if (override != null) {
+                    content = override;
+                } else if (parts == null) {
+                    content = record.get("c").getAsString();
+                } else {
+                    StringBuilder builder = new StringBuilder(record.get("c").getAsString());
+                    for (int k = parts.size() - 1; k >= 0; k--) {
+                        builder.append(parts.get(k));
+                    }
+                    content = builder.toString();
+                }
+                boolean open = record.has("open") && record.get("open").getAsBoolean();
+                out.add(new StoredMessage(index, record.get("u").getAsBoolean(), record.get("ts").getAsLong(),
+                        content, !open || ended));
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static JsonObject parseRecord(String line) {
+        if (line.isEmpty()) {
+            return null;
+        }
+        try {
+            JsonElement element = JsonParser.parseString(line);
+            if (element.isJsonObject() && element.getAsJsonObject().has("op")) {
+                return element.getAsJsonObject();
+            }
+        } catch (JsonParseException | IllegalStateException | UnsupportedOperationException e) {
+            // 整个文件损坏时每一行都会走到这里，限制输出条数
+            if (LOGGER.isDebugEnabled()) {
+                long skipped = CORRUPT_LINE_LOG.tryAcquire();
+                if (skipped >= 0) {
+                    LOGGER.debug("跳过损坏的聊天记录行（之前省略 {} 条）: {}", skipped, line);
+                }
+            }
+        }
+        return null;
+    }
+
+    // ---- 写入线程 ----
+
+    private synchronized int nextIndex(String sessionId, long timestamp, String content) {
+        SessionInfo info = sessions.get(sessionId);
+        if (info == null) {
+            throw new IllegalStateException("会话不存在: " + sessionId);
+        }
+        sessions.put(sessionId, info.withMessage(timestamp, content));
+        return info.messageCount;
+    }
+
+    private static JsonObject addRecord(int index, boolean isUser, long timestamp, String content) {
+        JsonObject record = new JsonObject();
+        record.addProperty("op", "add");
+        record.addProperty("i", index);
+        record.addProperty("u", isUser);
+        record.addProperty("ts", timestamp);
+        record.addProperty("c", content);
+        return record;
+    }
+
+    private void writeRecord(String sessionId, JsonObject record, boolean sync) {
+        try {
+            FileChannel channel = openJournal(sessionId);
+            ByteBuffer buffer = StandardCharsets.UTF_8.encode(GSON.toJson(record) + "\n");
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (sync) {
+                // 消息完整写入后落盘，流式增量只写入系统缓存
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            LOGGER.error("写入聊天记录失败: {}", sessionId, e);
+        }
+    }
+
+    private FileChannel openJournal(String sessionId) throws IOException {
+        FileChannel channel = openJournals.get(sessionId);
+        if (channel != null && channel.isOpen()) {
+            return channel;
+        }
+        channel = FileChannel.open(journalPath(sessionId),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        channel.position(size);
+        if (size > 0) {
+            // 上次退出时最后一行没写完，先补一个换行，让残缺的记录自成一行被跳过
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, size - 1);
+            if (last.get(0) != '\n') {
+                channel.write(ByteBuffer.wrap(new byte[]{'\n'}));
+            }
+        }
+        openJournals.put(sessionId, channel);
+        if (openJournals.size() > MAX_OPEN_JOURNALS) {
+            Iterator<FileChannel> eldest = openJournals.values().iterator();
+            closeQuietly(eldest.next());
+            eldest.remove();
+        }
+        return channel;
+    }
+
+    private void scheduleIndexWrite() {
+        synchronized (this) {
+            if (indexWriteQueued) {
+                return;
+            }
+            indexWriteQueued = true;
+        }
+        writer.execute(this::writeIndex);
+    }
+
+    // 先写临时文件再原子替换，任何时刻磁盘上都是一份完整的索引
+    private void writeIndex() {
+        SessionInfo[] snapshot;
+        synchronized (this) {
+            indexWriteQueued = false;
+            snapshot = sessions.values().toArray(new SessionInfo[0]);
+        }
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = snapshot[i].withJournalBytes(journalSize(snapshot[i].id));
+        }
+        Path indexPath = directory.resolve(INDEX_FILE);
+        Path tempPath = directory.resolve(INDEX_FILE + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = StandardCharsets.UTF_8.encode(GSON.toJson(snapshot));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            try {
+                Files.move(tempPath, indexPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            LOGGER.error("写入聊天记录索引失败", e);
+        }
+    }
+
+    // ---- 启动时加载 ----
+
+    private void loadIndex() {
+        Path indexPath = directory.resolve(INDEX_FILE);
+        if (!Files.exists(indexPath)) {
+            return;
+        }
+        try {
+            SessionInfo[] entries = GSON.fromJson(Files.readString(indexPath), SessionInfo[].class);
+            if (entries != null) {
+                for (SessionInfo entry : entries) {
+                    if (entry != null && entry.id != null) {
+                        sessions.put(entry.id, entry);
+                    }
+                }
+            }
+        } catch (IOException | JsonParseException e) {
+            LOGGER.warn("聊天记录索引损坏，将从日志重建", e);
+            sessions.clear();
+        }
+    }
+
+    // 索引落后于日志时（例如上次没有正常退出），只补扫索引之后新增的部分
+    private void recoverJournals() {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + JOURNAL_SUFFIX)) {
+            for (Path path : stream) {
+                String fileName = path.getFileName().toString();
+                String sessionId = fileName.substring(0, fileName.length() - JOURNAL_SUFFIX.length());
+                long size = Files.size(path);
+                SessionInfo info = sessions.get(sessionId);
+                if (info != null && info.journalBytes == size) {
+                    continue;
+                }
+                if (info == null || size < info.journalBytes) {
+                    long created = Files.getLastModifiedTime(path).toMillis();
+                    info = new SessionInfo(sessionId, "新对话", created, created, 0, null, 0);
+                }
+                sessions.put(sessionId, scanForward(path, info));
+                LOGGER.info("已从日志恢复会话: {}", sessionId);
+            }
+        } catch (IOException e) {
+            LOGGER.error("扫描聊天记录目录失败", e);
+        }
+    }
+
+    private static SessionInfo scanForward(Path path, SessionInfo info) throws IOException {
+        String title = info.title;
+        long created = info.createdTime;
+        long updated = info.updatedTime;
+        int count = info.messageCount;
+        String preview = info.preview;
+        try (InputStream input = Files.newInputStream(path)) {
+            long skipped = 0;
+            while (skipped < info.journalBytes) {
+                long n = input.skip(info.journalBytes - skipped);
+                if (n <= 0) {
+                    break;
+                }
+                skipped += n;
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JsonObject record = parseRecord(line);
+                if (record == null) {
+                    continue;
+                }
+                switch (record.get("op").getAsString()) {
+                    case "meta":
+                        title = record.get("title").getAsString();
+                        if (record.has("created")) {
+                            created = record.get("created").getAsLong();
+                        }
+                        break;
+                    case "add":
+                        if (record.get("i").getAsInt() == 0) {
+                            preview = SessionInfo.previewOf(record.get("c").getAsString());
+                        }
+                        count = Math.max(count, record.get("i").getAsInt() + 1);
+                        updated = Math.max(updated, record.get("ts").getAsLong());
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        return new SessionInfo(info.id, title, created, updated, count, preview, Files.size(path));
+    }
+
+    // ---- 工具方法 ----
+
+    private Path journalPath(String sessionId) {
+        return directory.resolve(sessionId.replaceAll("[^A-Za-z0-9_-]", "_") + JOURNAL_SUFFIX);
+    }
+
+    private long journalSize(String sessionId) {
+        try {
+            Path path = journalPath(sessionId);
+            return Files.exists(path) ? Files.size(path) : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static String replyKey(String sessionId, int index) {
+        return sessionId + '#' + index;
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.debug("关闭聊天记录文件失败", e);
+        }
+    }
+}
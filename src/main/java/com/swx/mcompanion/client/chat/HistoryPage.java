@@ -0,0 +1,31 @@
+package com.swx.mcompanion.client.chat;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 从日志末尾向前分页读取的一页消息，按时间顺序排列。
+ * 再次传给 {@link ChatHistoryStore#loadOlder(HistoryPage, int)} 即可继续读取更早的消息。
+ */
+public final class HistoryPage {
+    public final String sessionId;
+    public final List<StoredMessage> messages;
+    // 下一页从这个字节位置向前读，0表示已经读到文件开头
+    final long nextOffset;
+    // 已经读到、但所属消息还在更早位置的追加记录（按消息序号，倒序片段）
+    final Map<Integer, List<String>> carriedAppends;
+    final Map<Integer, String> carriedEnds;
+
+    HistoryPage(String sessionId, List<StoredMessage> messages, long nextOffset,
+                Map<Integer, List<String>> carriedAppends, Map<Integer, String> carriedEnds) {
+        this.sessionId = sessionId;
+        this.messages = messages;
+        this.nextOffset = nextOffset;
+        this.carriedAppends = carriedAppends;
+        this.carriedEnds = carriedEnds;
+    }
+
+    public boolean hasOlder() {
+        return nextOffset > 0;
+    }
+}
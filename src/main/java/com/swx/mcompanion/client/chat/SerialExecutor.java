@@ -0,0 +1,51 @@
+package com.swx.mcompanion.client.chat;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 在底层线程池上按提交顺序逐个执行任务，同一时刻最多只占用一个线程。
+ * 用于需要严格顺序的文件写入，又不必为此单独开一个线程。
+ */
+final class SerialExecutor implements Executor {
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private final Executor executor;
+    private Runnable active;
+
+    SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public synchronized void execute(Runnable command) {
+        tasks.offer(() -> {
+            try {
+                command.run();
+            } finally {
+                scheduleNext();
+            }
+        });
+        if (active == null) {
+            scheduleNext();
+        }
+    }
+
+    private synchronized void scheduleNext() {
+        if ((active = tasks.poll()) != null) {
+            try {
+                executor.execute(active);
+            } catch (RejectedExecutionException e) {
+                // 线程池队列已满：改在单独的线程上执行，否则 active 永远不会清空，之后的任务全部堵在队列里
+                Thread thread = new Thread(active, "MCompanion-Serial-Overflow");
+                thread.setDaemon(true);
+                try {
+                    thread.start();
+                } catch (RuntimeException | Error startFailed) {
+                    active = null;
+                    throw startFailed;
+                }
+            }
+        }
+    }
+}
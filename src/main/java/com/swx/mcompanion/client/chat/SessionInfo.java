@@ -0,0 +1,45 @@
+package com.swx.mcompanion.client.chat;
+
+/**
+ * 会话元数据，保存在历史索引中，侧边栏只需要它而不必读取消息日志。
+ * 由 {@link ChatHistoryStore} 返回的是不可变的副本。
+ */
+public final class SessionInfo {
+    public final String id;
+    public final String title;
+    public final long createdTime;
+    public final long updatedTime;
+    public final int messageCount;
+    // 第一条消息的开头，未加载的会话在侧边栏上显示它
+    public final String preview;
+    // 上次写索引时日志文件的字节数，打开时据此判断是否需要补扫日志
+    final long journalBytes;
+
+    SessionInfo(String id, String title, long createdTime, long updatedTime, int messageCount, String preview,
+                long journalBytes) {
+        this.id = id;
+        this.title = title;
+        this.createdTime = createdTime;
+        this.updatedTime = updatedTime;
+        this.messageCount = messageCount;
+        this.preview = preview;
+        this.journalBytes = journalBytes;
+    }
+
+    SessionInfo withTitle(String title, long time) {
+        return new SessionInfo(id, title, createdTime, time, messageCount, preview, journalBytes);
+    }
+
+    SessionInfo withMessage(long time, String content) {
+        String newPreview = messageCount == 0 ? previewOf(content) : preview;
+        return new SessionInfo(id, title, createdTime, Math.max(updatedTime, time), messageCount + 1, newPreview, journalBytes);
+    }
+
+    SessionInfo withJournalBytes(long journalBytes) {
+        return new SessionInfo(id, title, createdTime, updatedTime, messageCount, preview, journalBytes);
+    }
+
+    static String previewOf(String content) {
+        return content.length() > 64 ? content.substring(0, 64) : content;
+    }
+}
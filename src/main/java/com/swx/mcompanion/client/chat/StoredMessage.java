@@ -0,0 +1,21 @@
+package com.swx.mcompanion.client.chat;
+
+/**
+ * 从历史日志中读出的一条消息。
+ * complete 为false表示这条回复在写完之前游戏就退出了，内容是当时已经收到的部分。
+ */
+public final class StoredMessage {
+    public final int index;
+    public final boolean isUser;
+    public final long timestamp;
+    public final String content;
+    public final boolean complete;
+
+    StoredMessage(int index, boolean isUser, long timestamp, String content, boolean complete) {
+        this.index = index;
+        this.isUser = isUser;
+        this.timestamp = timestamp;
+        this.content = content;
+        this.complete = complete;
+    }
+}
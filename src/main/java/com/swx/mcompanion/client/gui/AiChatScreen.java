@@ -1,5 +1,11 @@
 package com.swx.mcompanion.client.gui;
 
+import com.swx.mcompanion.client.KeyBindings;
+import com.swx.mcompanion.client.chat.HistoryPage;
+import com.swx.mcompanion.client.chat.SessionInfo;
+import com.swx.mcompanion.client.metrics.ClientMetrics;
+import com.swx.mcompanion.client.metrics.JfrEvents;
+import com.swx.mcompanion.client.metrics.MetricsOverlay;
 import com.swx.mcompanion.client.network.SimpleAiChatClient;
 import com.swx.mcompanion.config.ClientConfig;
 import net.minecraft.client.gui.GuiGraphics;
@@ -8,10 +14,11 @@ import net.minecraft.client.gui.components.EditBox;
 import net.minecraft.client.gui.screens.Screen;
 import net.minecraft.client.gui.Font;
 import net.minecraft.network.chat.Component;
-import net.minecraft.util.FormattedCharSequence;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 public class AiChatScreen extends Screen {
@@ -21,6 +28,11 @@ public class AiChatScreen extends Screen {
     private static final int INPUT_HEIGHT = 32;
     private static final int SEND_BUTTON_WIDTH = 60;
     private static final int SETTINGS_BUTTON_SIZE = 24;
+    private static final int STOP_BUTTON_WIDTH = 72;
+    // 侧边栏会话列表：固定行高，点击和可见范围都可以直接算出
+    private static final int SIDEBAR_LIST_TOP = 60; // 新建按钮下方
+    private static final int SIDEBAR_ITEM_HEIGHT = 50;
+    private static final int SIDEBAR_ITEM_STRIDE = SIDEBAR_ITEM_HEIGHT + 4;
     
     // 颜色常量
     private static final int SIDEBAR_BG = 0xE0202123;
@@ -37,36 +49,97 @@ public class AiChatScreen extends Screen {
     private Button sendButton;
     private Button settingsButton;
     private Button newChatButton;
+    private Button stopButton;
     
-    // 聊天数据
-    private List<ChatMessage> currentChat;
-    private List<ChatSession> chatSessions;
-    private int activeChatIndex = 0;
+    // 聊天数据由全局的会话管理器持有，界面只是它的视图
+    private final ChatSessionManager manager;
     private int sidebarScrollOffset = 0;
-    private int chatScrollOffset = 0;
-    private boolean isWaitingForResponse = false;
+    // 上一帧是否在等待回复，变化时才更新按钮
+    private boolean showingWaitState = false;
+    // 已完成消息的离屏纹理，界面尺寸变化或关闭时释放
+    private final MessageTextureCache textureCache = new MessageTextureCache();
+    // 上次复制代码块的时间，之后短暂显示提示
+    private long codeCopiedAt = 0;
     
-    private SimpleAiChatClient chatClient;
-
     // 聊天消息类
     public static class ChatMessage {
-        public final String content;
+        private String content; // 流式回复期间为null，由增量解析器持有文本
         public final boolean isUser;
         public final long timestamp;
-        private FormattedContent formattedContent; // 缓存格式化后的内容
+        private IncrementalMarkdownParser streamParser; // 流式回复期间的增量解析器
+        private int version; // 内容每次变化时递增，供布局缓存判断是否失效
         
         public ChatMessage(String content, boolean isUser) {
+            this(content, isUser, System.currentTimeMillis());
+        }
+        
+        public ChatMessage(String content, boolean isUser, long timestamp) {
             this.content = content;
             this.isUser = isUser;
-            this.timestamp = System.currentTimeMillis();
-            this.formattedContent = null; // 初始为null，第一次访问时处理
+            this.timestamp = timestamp;
+        }
+        
+        public String getContent() {
+            if (streamParser != null) {
+                return streamParser.getText();
+            }
+            return content;
+        }
+        
+        public int getVersion() {
+            return version;
+        }
+        
+        public boolean isStreaming() {
+            return streamParser != null;
+        }
+        
+        public boolean isEmpty() {
+            return streamParser != null ? streamParser.length() == 0 : content.isEmpty();
+        }
+        
+        // 进入流式输出状态。回复的占位消息在创建时就调用，第一段增量到达之前布局索引也会持续复查它
+        public void beginStream() {
+            if (streamParser == null) {
+                streamParser = new IncrementalMarkdownParser();
+                streamParser.append(content);
+                content = null;
+                MessageCache.get().invalidate(this);
+            }
+        }
+        
+        // 追加流式增量，只重新解析末尾未结束的行
+        public void appendStream(String delta) {
+            beginStream();
+            streamParser.append(delta);
+            version++;
+        }
+        
+        // 流式回复结束，内容一致时沿用已解析的元素
+        public void finishStream(String finalContent) {
+            if (streamParser == null) {
+                if (!finalContent.equals(content)) {
+                    content = finalContent;
+                    MessageCache.get().invalidate(this);
+                    version++;
+                }
+                return;
+            }
+            boolean unchanged = streamParser.length() == finalContent.length() && streamParser.getText().equals(finalContent);
+            if (unchanged) {
+                MessageCache.get().putParsed(this, streamParser.getFormattedContent());
+            }
+            content = finalContent;
+            streamParser = null;
+            version++;
         }
         
         public FormattedContent getFormattedContent() {
-            if (formattedContent == null) {
-                formattedContent = MarkdownParser.parseMarkdown(content);
+            if (streamParser != null) {
+                return streamParser.getFormattedContent();
             }
-            return formattedContent;
+            // 解析结果由全局缓存按内存预算保存，被淘汰后重新解析
+            return MessageCache.get().getParsed(this);
         }
     }
     
@@ -81,6 +154,30 @@ public class AiChatScreen extends Screen {
         }
     }
     
+    // 元素在某一宽度下的布局结果：换行后的各行和高度
+    public static class ElementLayout {
+        public final List<String> lines;
+        public final int height;
+        
+        public ElementLayout(List<String> lines, int height) {
+            this.lines = lines;
+            this.height = height;
+        }
+        
+        public static ElementLayout fixed(int height) {
+            return new ElementLayout(Collections.emptyList(), height);
+        }
+        
+        // 估算占用的内存字节数，用于缓存预算
+        public long estimateBytes() {
+            long bytes = 32;
+            for (String line : lines) {
+                bytes += 48 + 2L * line.length();
+            }
+            return bytes;
+        }
+    }
+    
     // Markdown元素基类
     public static abstract class MarkdownElement {
         public final String text;
@@ -93,7 +190,24 @@ public class AiChatScreen extends Screen {
         
         public abstract int getHeight();
         public abstract int getTextColor();
-        public abstract void render(GuiGraphics guiGraphics, Font font, int x, int y, int maxWidth);
+        
+        // 估算占用的内存字节数，用于缓存预算
+        public long estimateBytes() {
+            return 64 + 2L * text.length();
+        }
+        
+        // 按给定宽度计算布局，结果由LayoutCache缓存，默认不换行
+        public ElementLayout layout(TextMeasurer measurer, int maxWidth) {
+            return ElementLayout.fixed(getHeight());
+        }
+        
+        public abstract void render(GuiGraphics guiGraphics, Font font, int x, int y, int maxWidth, ElementLayout layout);
+        
+        // 只需绘制纵向 [clipTop, clipBottom) 范围内的部分，较高的元素可以跳过不可见的行，默认整体绘制
+        public void render(GuiGraphics guiGraphics, Font font, int x, int y, int maxWidth, ElementLayout layout,
+                           int clipTop, int clipBottom) {
+            render(guiGraphics, font, x, y, maxWidth, layout);
+        }
     }
     
     // 标题元素
@@ -112,7 +226,7 @@ public class AiChatScreen extends Screen {
         public int getTextColor() { return 0xFF2E7D32; }
         
         @Override
-        public void render(GuiGraphics guiGraphics, Font font, int x, int y, int maxWidth) {
+        public void render(GuiGraphics guiGraphics, Font font, int x, int y, int maxWidth, ElementLayout layout) {
             guiGraphics.pose().pushPose();
             float scale = level == 1 ? 1.2f : 1.1f;
             guiGraphics.pose().scale(scale, scale, 1.0f);
@@ -124,102 +238,64 @@ public class AiChatScreen extends Screen {
     // 段落元素
     public static class ParagraphElement extends MarkdownElement {
         private final List<TextFragment> fragments;
-        private List<FormattedCharSequence> wrappedLines;
-        private int calculatedHeight;
         
         public ParagraphElement(String text, int indentLevel) {
+            this(text, indentLevel, MarkdownLexer.lexInline(text, 0, text.length()));
+        }
+        
+        public ParagraphElement(String text, int indentLevel, List<TextFragment> fragments) {
             super(text, indentLevel);
-            this.fragments = parseTextFragments(text);
+            this.fragments = fragments;
         }
         
-        public void calculateWrapping(Font font, int maxWidth) {
-            if (wrappedLines != null) return; // 已经计算过
-            
-            wrappedLines = new ArrayList<>();
+        @Override
+        public long estimateBytes() {
+            long bytes = super.estimateBytes();
+            for (TextFragment fragment : fragments) {
+                bytes += 72 + 2L * fragment.text.length();
+            }
+            return bytes;
+        }
+        
+        @Override
+        public ElementLayout layout(TextMeasurer measurer, int maxWidth) {
             StringBuilder currentLine = new StringBuilder();
             
             for (TextFragment fragment : fragments) {
                 currentLine.append(fragment.text);
             }
             
-            // 使用Minecraft的自动换行功能
+            // 自动换行
             int effectiveWidth = Math.max(100, maxWidth - (indentLevel * 16));
-            List<FormattedCharSequence> lines = font.split(Component.literal(currentLine.toString()), effectiveWidth);
-            wrappedLines.addAll(lines);
+            List<String> lines = measurer.split(currentLine.toString(), effectiveWidth);
             
-            calculatedHeight = wrappedLines.size() * 12 + 4; // 每行12像素 + 间距
+            return new ElementLayout(lines, lines.size() * 12 + 4); // 每行12像素 + 间距
         }
         
         @Override
         public int getHeight() { 
-            return calculatedHeight > 0 ? calculatedHeight : 14; 
+            return 14; 
         }
         
         @Override
         public int getTextColor() { return 0xFF000000; }
         
         @Override
-        public void render(GuiGraphics guiGraphics, Font font, int x, int y, int maxWidth) {
-            calculateWrapping(font, maxWidth);
-            
+        public void render(GuiGraphics guiGraphics, Font font, int x, int y, int maxWidth, ElementLayout layout) {
             int currentY = y;
             int indentX = x + (indentLevel * 16);
             
-            for (FormattedCharSequence line : wrappedLines) {
+            for (String line : layout.lines) {
                 guiGraphics.drawString(font, line, indentX, currentY, getTextColor(), false);
                 currentY += 12;
             }
         }
-        
-        private List<TextFragment> parseTextFragments(String text) {
-            List<TextFragment> fragments = new ArrayList<>();
-            StringBuilder current = new StringBuilder();
-            boolean inBold = false, inItalic = false, inCode = false;
-            
-            for (int i = 0; i < text.length(); i++) {
-                char c = text.charAt(i);
-                
-                if (c == '*' && i + 1 < text.length() && text.charAt(i + 1) == '*') {
-                    // 粗体标记
-                    if (current.length() > 0) {
-                        fragments.add(new TextFragment(current.toString(), inBold, inItalic, inCode));
-                        current.setLength(0);
-                    }
-                    inBold = !inBold;
-                    i++; // 跳过第二个*
-                } else if (c == '*') {
-                    // 斜体标记
-                    if (current.length() > 0) {
-                        fragments.add(new TextFragment(current.toString(), inBold, inItalic, inCode));
-                        current.setLength(0);
-                    }
-                    inItalic = !inItalic;
-                } else if (c == '`') {
-                    // 代码标记
-                    if (current.length() > 0) {
-                        fragments.add(new TextFragment(current.toString(), inBold, inItalic, inCode));
-                        current.setLength(0);
-                    }
-                    inCode = !inCode;
-                } else {
-                    current.append(c);
-                }
-            }
-            
-            if (current.length() > 0) {
-                fragments.add(new TextFragment(current.toString(), inBold, inItalic, inCode));
-            }
-            
-            return fragments;
-        }
     }
     
     // 列表元素
     public static class ListElement extends MarkdownElement {
         public final boolean isOrdered;
         public final int number;
-        private List<FormattedCharSequence> wrappedLines;
-        private int calculatedHeight;
         
         public ListElement(String text, boolean isOrdered, int number, int indentLevel) {
             super(text, indentLevel);
@@ -227,29 +303,26 @@ public class AiChatScreen extends Screen {
             this.number = number;
         }
         
-        public void calculateWrapping(Font font, int maxWidth) {
-            if (wrappedLines != null) return; // 已经计算过
-            
+        @Override
+        public ElementLayout layout(TextMeasurer measurer, int maxWidth) {
             String prefix = isOrdered ? (number + ". ") : "• ";
-            int prefixWidth = font.width(prefix);
+            int prefixWidth = measurer.width(prefix);
             int effectiveWidth = Math.max(100, maxWidth - (indentLevel * 20) - prefixWidth);
             
-            wrappedLines = font.split(Component.literal(text), effectiveWidth);
-            calculatedHeight = wrappedLines.size() * 12 + 4;
+            List<String> lines = measurer.split(text, effectiveWidth);
+            return new ElementLayout(lines, lines.size() * 12 + 4);
         }
         
         @Override
         public int getHeight() { 
-            return calculatedHeight > 0 ? calculatedHeight : 14; 
+            return 14; 
         }
         
         @Override
         public int getTextColor() { return 0xFF1976D2; }
         
         @Override
-        public void render(GuiGraphics guiGraphics, Font font, int x, int y, int maxWidth) {
-            calculateWrapping(font, maxWidth);
-            
+        public void render(GuiGraphics guiGraphics, Font font, int x, int y, int maxWidth, ElementLayout layout) {
             int indentX = x + (indentLevel * 20);
             String prefix = isOrdered ? (number + ". ") : "• ";
             int prefixWidth = font.width(prefix);
@@ -259,35 +332,216 @@ public class AiChatScreen extends Screen {
             
             // 绘制换行后的文本
             int currentY = y;
-            for (FormattedCharSequence line : wrappedLines) {
+            for (String line : layout.lines) {
                 guiGraphics.drawString(font, line, indentX + prefixWidth, currentY, 0xFF000000, false);
                 currentY += 12;
             }
         }
     }
     
-    // 代码块元素
+    // 代码块元素：同一个代码块的所有行合并为一个元素。
+    // 每行的宽度只测量一次，换行结果按宽度缓存；过长的行自动换行，绘制时只画可见范围内的行。
+    // 流式回复中新的代码行通过 withLine 追加，元素创建后内容不再变化，只在渲染线程上使用。
     public static class CodeBlockElement extends MarkdownElement {
-        public CodeBlockElement(String text) {
-            super(text, 1);
+        public static final String COPY_LABEL = "复制";
+        private static final int ROW_HEIGHT = 12;
+        private static final int HEADER_HEIGHT = 12;
+        private static final int BOTTOM_PADDING = 4;
+        private static final int SPACING = 4;
+        // 代码文字相对元素位置的偏移
+        private static final int TEXT_OFFSET = 20;
+        
+        // 同一个代码块的各个元素共用，只在末尾追加，已有的行不会改变
+        private final CodeLines code;
+        // 这个元素包含 code 中的前 lineCount - 1 行，再加上 lastLine
+        private final int lineCount;
+        // 最后一行单独保存：流式回复中未结束的末行会被反复替换，替换时不必改动共用的行
+        private final String lastLine;
+        
+        public CodeBlockElement(String line) {
+            this(new CodeLines(), 1, line);
+        }
+        
+        private CodeBlockElement(CodeLines code, int lineCount, String lastLine) {
+            super("", 1);
+            this.code = code;
+            this.lineCount = lineCount;
+            this.lastLine = lastLine;
+        }
+        
+        /**
+         * 返回在末尾多一行的代码块，与这个元素共用已有的行和测量结果，这个元素本身不变。
+         * 在较早的元素上再次追加（替换流式回复中未结束的末行）同样共用；
+         * 共用的行已经被另一个分支占用时复制一份。
+         */
+        public CodeBlockElement withLine(String line) {
+            int shared = lineCount - 1;
+            CodeLines target = code;
+            if (target.lines.size() == shared) {
+                target.lines.add(lastLine);
+            } else if (!target.lines.get(shared).equals(lastLine)) {
+                target = code.copy(shared);
+                target.lines.add(lastLine);
+            }
+            return new CodeBlockElement(target, lineCount + 1, line);
+        }
+        
+        // 合并下一个代码块元素的各行
+        public CodeBlockElement withLines(CodeBlockElement next) {
+            CodeBlockElement merged = this;
+            for (int i = 0; i < next.lineCount; i++) {
+                merged = merged.withLine(next.getLine(i));
+            }
+            return merged;
+        }
+        
+        public int getLineCount() {
+            return lineCount;
+        }
+        
+        private String getLine(int index) {
+            return index == lineCount - 1 ? lastLine : code.lines.get(index);
+        }
+        
+        // 整个代码块的文本，用于复制
+        public String getCode() {
+            if (lineCount == 1) {
+                return lastLine;
+            }
+            return String.join("\n", code.lines.subList(0, lineCount - 1)) + "\n" + lastLine;
         }
         
         @Override
-        public int getHeight() { return 16; }
+        public int getHeight() { return HEADER_HEIGHT + lineCount * ROW_HEIGHT + BOTTOM_PADDING + SPACING; }
         
         @Override
         public int getTextColor() { return 0xFFD32F2F; }
         
         @Override
-        public void render(GuiGraphics guiGraphics, Font font, int x, int y, int maxWidth) {
-            int codeX = x + 20;
-            int textWidth = font.width(text);
+        public long estimateBytes() {
+            long bytes = 64;
+            for (int i = 0; i < lineCount; i++) {
+                bytes += 56 + 2L * getLine(i).length();
+            }
+            return bytes;
+        }
+        
+        @Override
+        public ElementLayout layout(TextMeasurer measurer, int maxWidth) {
+            int textWidth = getTextWidth(maxWidth);
+            List<String> rows = new ArrayList<>(lineCount);
+            code.rows(measurer, textWidth, lineCount - 1, rows);
+            // 末行不在共用的缓存里，每次布局重新测量这一行
+            if (measurer.width(lastLine) <= textWidth) {
+                rows.add(lastLine);
+            } else {
+                List<String> parts = measurer.split(lastLine, textWidth);
+                rows.addAll(parts.isEmpty() ? Collections.singletonList(lastLine) : parts);
+            }
+            return new ElementLayout(rows, HEADER_HEIGHT + rows.size() * ROW_HEIGHT + BOTTOM_PADDING + SPACING);
+        }
+        
+        @Override
+        public void render(GuiGraphics guiGraphics, Font font, int x, int y, int maxWidth, ElementLayout layout) {
+            render(guiGraphics, font, x, y, maxWidth, layout, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        }
+        
+        @Override
+        public void render(GuiGraphics guiGraphics, Font font, int x, int y, int maxWidth, ElementLayout layout,
+                           int clipTop, int clipBottom) {
+            int codeX = x + TEXT_OFFSET;
+            int right = codeX + getTextWidth(maxWidth) + 4;
+            int bottom = y + layout.height - SPACING;
+            
+            // 绘制代码背景和左边蓝色边线
+            int top = Math.max(y, clipTop);
+            int visibleBottom = Math.min(bottom, clipBottom);
+            if (top < visibleBottom) {
+                guiGraphics.fill(codeX - 4, top, right, visibleBottom, 0xFFF5F5F5);
+                guiGraphics.fill(codeX - 4, top, codeX - 2, visibleBottom, 0xFF2196F3);
+            }
             
-            // 绘制代码背景
-            guiGraphics.fill(codeX - 4, y - 2, codeX + textWidth + 4, y + 14, 0xFFF5F5F5);
-            guiGraphics.fill(codeX - 4, y - 2, codeX - 2, y + 14, 0xFF2196F3); // 左边蓝色边线
+            // 右上角的复制按钮
+            if (y + HEADER_HEIGHT > clipTop && y < clipBottom) {
+                guiGraphics.drawString(font, COPY_LABEL, right - 2 - font.width(COPY_LABEL), y + 2, 0xFF888888, false);
+            }
             
-            guiGraphics.drawString(font, text, codeX, y, getTextColor(), false);
+            // 只绘制可见范围内的行
+            int rowsTop = y + HEADER_HEIGHT;
+            int first = (int) Math.max(0, Math.floorDiv((long) clipTop - rowsTop, ROW_HEIGHT));
+            int last = (int) Math.min(layout.lines.size(), Math.floorDiv((long) clipBottom - rowsTop + ROW_HEIGHT - 1, ROW_HEIGHT));
+            for (int i = first; i < last; i++) {
+                guiGraphics.drawString(font, layout.lines.get(i), codeX, rowsTop + i * ROW_HEIGHT, getTextColor(), false);
+            }
+        }
+        
+        // 与 render 相同的坐标下，鼠标是否在复制按钮上
+        public boolean isOnCopyButton(Font font, int x, int y, int maxWidth, double mouseX, double mouseY) {
+            int right = x + TEXT_OFFSET + getTextWidth(maxWidth) + 4;
+            return mouseX >= right - 4 - font.width(COPY_LABEL) && mouseX < right
+                    && mouseY >= y && mouseY < y + HEADER_HEIGHT;
+        }
+        
+        // 代码文字可用的宽度：扣除消息内边距、缩进、左侧偏移和右侧留白
+        private int getTextWidth(int maxWidth) {
+            return Math.max(40, maxWidth - (8 + indentLevel * 16) - TEXT_OFFSET - 12);
+        }
+        
+        // 代码块的各行，以及按测量器缓存的宽度和按宽度缓存的换行结果
+        private static final class CodeLines {
+            final List<String> lines = new ArrayList<>();
+            private int[] widths = new int[16];
+            private int measured = 0;
+            private TextMeasurer measuredBy;
+            // 超过可用宽度的行换行后的结果，其余行为null
+            private final List<List<String>> wrapped = new ArrayList<>();
+            private int wrapWidth = -1;
+            
+            // 前 count 行及其测量结果的副本
+            CodeLines copy(int count) {
+                CodeLines copy = new CodeLines();
+                copy.lines.addAll(lines.subList(0, count));
+                copy.widths = Arrays.copyOf(widths, Math.max(16, count));
+                copy.measured = Math.min(measured, count);
+                copy.measuredBy = measuredBy;
+                copy.wrapped.addAll(wrapped.subList(0, Math.min(wrapped.size(), count)));
+                copy.wrapWidth = wrapWidth;
+                return copy;
+            }
+            
+            // 把前 count 行按 textWidth 换行后的各行追加到 out
+            void rows(TextMeasurer measurer, int textWidth, int count, List<String> out) {
+                if (measurer != measuredBy) {
+                    measuredBy = measurer;
+                    measured = 0;
+                    wrapped.clear();
+                }
+                if (textWidth != wrapWidth) {
+                    wrapWidth = textWidth;
+                    wrapped.clear();
+                }
+                if (widths.length < count) {
+                    widths = Arrays.copyOf(widths, Math.max(count, widths.length * 2));
+                }
+                for (; measured < count; measured++) {
+                    widths[measured] = measurer.width(lines.get(measured));
+                }
+                while (wrapped.size() < count) {
+                    wrapped.add(null);
+                }
+                for (int i = 0; i < count; i++) {
+                    String line = lines.get(i);
+                    if (widths[i] <= textWidth) {
+                        out.add(line);
+                        continue;
+                    }
+                    if (wrapped.get(i) == null) {
+                        List<String> parts = measurer.split(line, textWidth);
+                        wrapped.set(i, parts.isEmpty() ? Collections.singletonList(line) : parts);
+                    }
+                    out.addAll(wrapped.get(i));
+                }
+            }
         }
     }
     
@@ -304,7 +558,7 @@ public class AiChatScreen extends Screen {
         public int getTextColor() { return 0; }
         
         @Override
-        public void render(GuiGraphics guiGraphics, Font font, int x, int y, int maxWidth) {
+        public void render(GuiGraphics guiGraphics, Font font, int x, int y, int maxWidth, ElementLayout layout) {
             // 空行不渲染任何内容
         }
     }
@@ -322,7 +576,7 @@ public class AiChatScreen extends Screen {
         public int getTextColor() { return 0; }
         
         @Override
-        public void render(GuiGraphics guiGraphics, Font font, int x, int y, int maxWidth) {
+        public void render(GuiGraphics guiGraphics, Font font, int x, int y, int maxWidth, ElementLayout layout) {
             int lineY = y + 8;
             guiGraphics.fill(x, lineY, x + maxWidth - 40, lineY + 1, 0xFF888888);
         }
@@ -351,108 +605,46 @@ public class AiChatScreen extends Screen {
                 return new FormattedContent(new ArrayList<>(), 0);
             }
             
+            // 单遍扫描，不再逐行拆分和正则匹配
+            long start = System.nanoTime();
+            JfrEvents.MarkdownParse event = new JfrEvents.MarkdownParse();
+            event.begin();
             List<MarkdownElement> elements = new ArrayList<>();
-            String[] lines = content.split("\n");
-            boolean inCodeBlock = false;
-            int listNumber = 1;
-            
-            for (String line : lines) {
-                // 处理代码块
-                if (line.trim().startsWith("```")) {
-                    inCodeBlock = !inCodeBlock;
-                    if (!inCodeBlock) {
-                        elements.add(new EmptyLineElement());
-                    }
-                    continue;
-                }
-                
-                if (inCodeBlock) {
-                    elements.add(new CodeBlockElement(line));
-                    continue;
-                }
-                
-                // 空行
-                if (line.trim().isEmpty()) {
-                    elements.add(new EmptyLineElement());
-                    listNumber = 1; // 重置列表编号
-                    continue;
-                }
-                
-                // 分隔线
-                if (line.trim().matches("^[-*_]{3,}$")) {
-                    elements.add(new SeparatorElement());
-                    continue;
-                }
-                
-                // 标题
-                if (line.trim().startsWith("#")) {
-                    int level = 0;
-                    while (level < line.length() && line.charAt(level) == '#') {
-                        level++;
-                    }
-                    String title = line.substring(level).trim();
-                    elements.add(new HeadingElement(title, level));
-                    continue;
-                }
-                
-                // 有序列表
-                if (line.trim().matches("^\\d+\\.\\s+.*")) {
-                    int indent = getIndentLevel(line);
-                    String text = line.trim().replaceFirst("^\\d+\\.\\s+", "");
-                    elements.add(new ListElement(text, true, listNumber++, indent));
-                    continue;
-                }
-                
-                // 无序列表
-                if (line.trim().matches("^[-*+]\\s+.*")) {
-                    int indent = getIndentLevel(line);
-                    String text = line.trim().replaceFirst("^[-*+]\\s+", "");
-                    elements.add(new ListElement(text, false, 0, indent));
-                    continue;
-                }
-                
-                // 缩进列表项
-                if (line.matches("^\\s{2,}[-*+]\\s+.*")) {
-                    int indent = getIndentLevel(line) + 1;
-                    String text = line.trim().replaceFirst("^[-*+]\\s+", "");
-                    elements.add(new ListElement(text, false, 0, indent));
-                    continue;
-                }
-                
-                // 普通段落
-                int indent = getIndentLevel(line);
-                elements.add(new ParagraphElement(line.trim(), indent));
+            MarkdownLexer.lex(content, new ParseState(), elements);
+            ClientMetrics.PARSE.recordSince(start);
+            event.end();
+            if (event.shouldCommit()) {
+                event.chars = content.length();
+                event.commit();
             }
             
             // 高度在渲染时动态计算
             return new FormattedContent(elements, 0);
         }
         
-        // 动态计算内容高度
-        public static int calculateContentHeight(List<MarkdownElement> elements, Font font, int maxWidth) {
+        // 跨行的解析状态：是否处于代码块内、当前有序列表编号
+        static final class ParseState {
+            boolean inCodeBlock = false;
+            int listNumber = 1;
+            
+            ParseState copy() {
+                ParseState copy = new ParseState();
+                copy.inCodeBlock = inCodeBlock;
+                copy.listNumber = listNumber;
+                return copy;
+            }
+        }
+        
+        // 动态计算内容高度（不经过缓存，渲染路径请使用LayoutCache）
+        public static int calculateContentHeight(List<MarkdownElement> elements, TextMeasurer measurer, int maxWidth) {
             int totalHeight = 16; // 基础padding
             
             for (MarkdownElement element : elements) {
-                if (element instanceof ParagraphElement) {
-                    ((ParagraphElement) element).calculateWrapping(font, maxWidth);
-                } else if (element instanceof ListElement) {
-                    ((ListElement) element).calculateWrapping(font, maxWidth);
-                }
-                totalHeight += element.getHeight();
+                totalHeight += element.layout(measurer, maxWidth).height;
             }
             
             return totalHeight;
         }
-        
-        private static int getIndentLevel(String line) {
-            int indent = 0;
-            for (char c : line.toCharArray()) {
-                if (c == ' ') indent++;
-                else if (c == '\t') indent += 4;
-                else break;
-            }
-            return indent / 4; // 每4个空格算一级缩进
-        }
     }
     
     // 聊天会话类
@@ -461,35 +653,107 @@ public class AiChatScreen extends Screen {
         public String title;
         public final List<ChatMessage> messages;
         public final long createdTime;
+        // 是否已经写入历史记录，新会话在发送第一条消息时才写入
+        public boolean persisted;
+        // 历史记录中最后加载的一页，用于继续向前加载
+        public HistoryPage historyPage;
+        public boolean historyLoaded;
+        public boolean loadingHistory;
+        String storedPreview;
+        // 视图状态：滚动位置在关闭和重新打开界面之间保留
+        public int scrollOffset;
+        public boolean scrollToBottomPending;
+        // 向前加载历史后需要保持的视口到内容底部的距离，-1表示没有
+        public int bottomAnchor = -1;
+        // 每个会话独立的对话上下文
+        private SimpleAiChatClient client;
+        // 侧边栏上按宽度截断后的标题和预览，来源文本、宽度或字体变化时才重新计算
+        private String labelTitleSource;
+        private String labelPreviewSource;
+        private Font labelFont;
+        private int labelWidth;
+        private String titleLabel;
+        private String previewLabel;
         
         public ChatSession(String id, String title) {
             this.id = id;
             this.title = title;
             this.messages = new ArrayList<>();
             this.createdTime = System.currentTimeMillis();
+            this.historyLoaded = true; // 新会话没有需要加载的历史
         }
         
-        public String getPreview() {
-            if (messages.isEmpty()) return "新对话";
-            return messages.get(0).content.length() > 30 ? 
-                messages.get(0).content.substring(0, 30) + "..." : 
-                messages.get(0).content;
+        // 从历史索引恢复的会话，消息在打开时才分页加载
+        public ChatSession(SessionInfo info) {
+            this.id = info.id;
+            this.title = info.title;
+            this.messages = new ArrayList<>();
+            this.createdTime = info.createdTime;
+            this.persisted = true;
+            this.storedPreview = info.preview;
+        }
+        
+        public SimpleAiChatClient getClient() {
+            if (client == null) {
+                client = new SimpleAiChatClient();
+            }
+            return client;
+        }
+        
+        // 预览的完整来源文本：第一条消息，还没加载到第一条时用历史索引中保存的预览
+        private String getPreviewSource() {
+            if (messages.isEmpty() || (historyPage != null && historyPage.hasOlder())) {
+                if (storedPreview == null || storedPreview.isEmpty()) return "新对话";
+                return storedPreview;
+            }
+            return messages.get(0).getContent();
+        }
+        
+        public String getTitleLabel(Font font, int width) {
+            updateLabels(font, width);
+            return titleLabel;
+        }
+        
+        public String getPreviewLabel(Font font, int width) {
+            updateLabels(font, width);
+            return previewLabel;
+        }
+        
+        // 来源文本按引用比较，每帧只做几次比较，不分配新字符串
+        private void updateLabels(Font font, int width) {
+            String previewSource = getPreviewSource();
+            if (labelFont == font && labelWidth == width
+                    && labelTitleSource == title && labelPreviewSource == previewSource) {
+                return;
+            }
+            labelFont = font;
+            labelWidth = width;
+            labelTitleSource = title;
+            labelPreviewSource = previewSource;
+            titleLabel = truncateToWidth(font, title, width);
+            previewLabel = truncateToWidth(font, previewSource, width);
+        }
+        
+        private static String truncateToWidth(Font font, String text, int width) {
+            // 预览只显示一行
+            String line = text.replace('\n', ' ');
+            if (font.width(line) <= width) {
+                return line;
+            }
+            return font.plainSubstrByWidth(line, width - font.width("...")) + "...";
         }
     }
 
     public AiChatScreen() {
         super(Component.literal("AI Assistant"));
-        this.chatSessions = new ArrayList<>();
-        this.chatClient = new SimpleAiChatClient();
-        
-        // 创建默认聊天会话
-        this.chatSessions.add(new ChatSession("default", "新对话"));
-        this.currentChat = this.chatSessions.get(0).messages;
+        this.manager = ChatSessionManager.get();
     }
 
     @Override
     protected void init() {
         super.init();
+        // 窗口尺寸或界面缩放变化时会重新初始化，旧尺寸的纹理都不能再用
+        textureCache.clear();
         
         // 侧边栏新建对话按钮
         this.newChatButton = Button.builder(Component.literal("+ 新对话"), button -> createNewChat())
@@ -503,6 +767,14 @@ public class AiChatScreen extends Screen {
                 .build();
         this.addRenderableWidget(settingsButton);
         
+        // 停止生成按钮，只在等待回复时显示
+        this.stopButton = Button.builder(Component.literal("停止生成"), button -> manager.stopGenerating())
+                .bounds(this.width - MARGIN - STOP_BUTTON_WIDTH, MARGIN, STOP_BUTTON_WIDTH, SETTINGS_BUTTON_SIZE)
+                .build();
+        this.showingWaitState = false;
+        this.stopButton.visible = false;
+        this.addRenderableWidget(stopButton);
+        
         // 计算聊天区域
         int chatAreaX = SIDEBAR_WIDTH + MARGIN;
         int chatAreaWidth = this.width - SIDEBAR_WIDTH - 2 * MARGIN;
@@ -526,18 +798,19 @@ public class AiChatScreen extends Screen {
                 .bounds(this.width - MARGIN - SEND_BUTTON_WIDTH, inputY, SEND_BUTTON_WIDTH, INPUT_HEIGHT)
                 .build();
         this.addRenderableWidget(sendButton);
+        updateWaitState();
         
         // 设置输入框焦点
         this.setInitialFocus(inputField);
     }
 
     private void createNewChat() {
-        String newId = "chat_" + System.currentTimeMillis();
-        ChatSession newSession = new ChatSession(newId, "新对话");
-        chatSessions.add(0, newSession);
-        activeChatIndex = 0;
-        currentChat = newSession.messages;
-        chatScrollOffset = 0;
+        if (!ClientConfig.isBackgroundStreaming()) {
+            manager.stopGenerating();
+        }
+        manager.createNewChat();
+        // 新会话在列表最上方
+        sidebarScrollOffset = 0;
     }
 
     private void openSettings() {
@@ -546,69 +819,43 @@ public class AiChatScreen extends Screen {
 
     private void sendMessage() {
         String message = inputField.getValue().trim();
-        if (message.isEmpty() || isWaitingForResponse) {
+        if (message.isEmpty() || manager.isWaitingForResponse()) {
             return;
         }
         
         // 检查是否设置了API Key
         if (ClientConfig.getApiKey().isEmpty()) {
-            addMessage("请先在设置中配置API Key", false);
+            manager.addNotice("请先在设置中配置API Key");
             return;
         }
         
-        // 添加用户消息
-        addMessage(message, true);
         inputField.setValue("");
-        
-        // 更新会话标题（使用第一条消息）
-        ChatSession currentSession = chatSessions.get(activeChatIndex);
-        if (currentSession.messages.size() == 1) {
-            currentSession.title = message.length() > 20 ? message.substring(0, 20) + "..." : message;
-        }
-        
-        // 设置等待状态
-        isWaitingForResponse = true;
-        sendButton.setMessage(Component.literal("发送中..."));
-        
-        // 添加AI回复占位符
-        addMessage("", false);
-        
-        // 发送请求
-        chatClient.sendMessage(message, this::onStreamData, this::onComplete, this::onError);
+        manager.sendMessage(message);
+        updateWaitState();
     }
     
-    private void onStreamData(String data) {
-        // 实时更新最后一条消息（AI回复）
-        if (!currentChat.isEmpty()) {
-            ChatMessage lastMsg = currentChat.get(currentChat.size() - 1);
-            if (!lastMsg.isUser) {
-                currentChat.set(currentChat.size() - 1, new ChatMessage(data, false));
-            }
+    // 按钮状态跟随管理器中的回复状态，界面关闭期间回复结束也能正确显示
+    private void updateWaitState() {
+        boolean waiting = manager.isWaitingForResponse();
+        if (waiting == showingWaitState) {
+            return;
         }
+        showingWaitState = waiting;
+        sendButton.setMessage(Component.literal(waiting ? "发送中..." : "发送"));
+        stopButton.visible = waiting;
     }
     
-    private void onComplete(String finalMessage) {
-        // 确保最终消息正确显示
-        if (!currentChat.isEmpty()) {
-            ChatMessage lastMsg = currentChat.get(currentChat.size() - 1);
-            if (!lastMsg.isUser) {
-                currentChat.set(currentChat.size() - 1, new ChatMessage(finalMessage, false));
-            }
+    // 应用会话管理器留下的滚动请求：新消息滚到底部，加载更早的历史后保持视口位置
+    private void applyPendingScroll(ChatSession session) {
+        if (session.scrollToBottomPending) {
+            session.scrollToBottomPending = false;
+            session.bottomAnchor = -1;
+            scrollToBottom();
+        } else if (session.bottomAnchor >= 0) {
+            int totalHeight = calculateChatContentHeight();
+            session.scrollOffset = Math.max(0, totalHeight - 16 - session.bottomAnchor);
+            session.bottomAnchor = -1;
         }
-        isWaitingForResponse = false;
-        sendButton.setMessage(Component.literal("发送"));
-    }
-    
-    private void onError(String error) {
-        addMessage("错误: " + error, false);
-        isWaitingForResponse = false;
-        sendButton.setMessage(Component.literal("发送"));
-    }
-    
-    private void addMessage(String message, boolean isUser) {
-        currentChat.add(new ChatMessage(message, isUser));
-        // 自动滚动到底部
-        scrollToBottom();
     }
     
     private void scrollToBottom() {
@@ -617,26 +864,21 @@ public class AiChatScreen extends Screen {
         int chatHeight = this.height - chatY - INPUT_HEIGHT - 2 * MARGIN;
         
         // 确保滚动到真正的底部
-        chatScrollOffset = Math.max(0, totalHeight - chatHeight + 20); // 额外20像素缓冲
+        manager.getActiveSession().scrollOffset = Math.max(0, totalHeight - chatHeight + 20); // 额外20像素缓冲
     }
     
     private int calculateChatContentHeight() {
-        int height = 16; // 基础padding
         int chatAreaWidth = this.width - SIDEBAR_WIDTH - 4 * MARGIN;
         int messageWidth = chatAreaWidth - 40; // 消息框的有效宽度
         
-        for (ChatMessage msg : currentChat) {
-            if (msg.content.isEmpty()) continue;
-            
-            FormattedContent formattedContent = msg.getFormattedContent();
-            
-            // 动态计算真实高度
-            int contentHeight = MarkdownParser.calculateContentHeight(
-                formattedContent.elements, this.font, messageWidth);
-            
-            height += contentHeight + 16; // 消息间距
-        }
-        return height;
+        ChatLayoutIndex layoutIndex = manager.getLayoutIndex();
+        layoutIndex.sync(manager.getActiveSession().messages, getTextMeasurer(), messageWidth);
+        return 16 + layoutIndex.getTotalHeight(); // 基础padding + 各消息高度及间距
+    }
+
+    // 测量器由管理器持有，重新打开界面后布局缓存仍然有效
+    private TextMeasurer getTextMeasurer() {
+        return manager.getTextMeasurer(this.font);
     }
 
     @Override
@@ -649,6 +891,12 @@ public class AiChatScreen extends Screen {
 
     @Override
     public void render(@NotNull GuiGraphics guiGraphics, int mouseX, int mouseY, float partialTick) {
+        long frameStart = System.nanoTime();
+        // 合并处理网络线程送来的流式更新
+        manager.drainPendingStream();
+        updateWaitState();
+        applyPendingScroll(manager.getActiveSession());
+        
         // 背景
         this.renderBackground(guiGraphics);
         
@@ -661,7 +909,21 @@ public class AiChatScreen extends Screen {
         // 绘制输入区域
         renderInputArea(guiGraphics);
         
+        // 连接状态（正在重试、正在续传等）显示在设置按钮右侧
+        String connectionStatus = manager.getConnectionStatus();
+        if (connectionStatus == null && System.currentTimeMillis() - codeCopiedAt < 2000) {
+            connectionStatus = "已复制到剪贴板";
+        }
+        if (connectionStatus != null) {
+            guiGraphics.drawString(this.font, connectionStatus, SIDEBAR_WIDTH + MARGIN + SETTINGS_BUTTON_SIZE + 8,
+                    MARGIN + (SETTINGS_BUTTON_SIZE - this.font.lineHeight) / 2, 0xFFFFCC66, false);
+        }
+        
         super.render(guiGraphics, mouseX, mouseY, partialTick);
+        ClientMetrics.CHAT_FRAME.recordSince(frameStart);
+        
+        // 调试面板画在最上层，本身不计入界面耗时
+        MetricsOverlay.renderPanel(guiGraphics, this.font, this.width);
     }
     
     private void renderSidebar(GuiGraphics guiGraphics, int mouseX, int mouseY) {
@@ -671,36 +933,56 @@ public class AiChatScreen extends Screen {
         // 侧边栏边框
         guiGraphics.fill(SIDEBAR_WIDTH - 1, 0, SIDEBAR_WIDTH, this.height, BORDER_COLOR);
         
-        // 绘制聊天历史列表
-        int y = 60; // 从新建按钮下方开始
-        for (int i = 0; i < chatSessions.size(); i++) {
-            ChatSession session = chatSessions.get(i);
-            int itemHeight = 50;
-            
-            // 检查鼠标悬停
-            boolean isHovered = mouseX >= MARGIN && mouseX <= SIDEBAR_WIDTH - MARGIN && 
-                              mouseY >= y && mouseY <= y + itemHeight;
-            boolean isActive = i == activeChatIndex;
+        // 只绘制可见范围内的会话，并裁剪到列表区域
+        List<ChatSession> sessions = manager.getSessions();
+        clampSidebarScroll();
+        int listBottom = getSidebarListBottom();
+        int hoveredIndex = getSidebarItemAt(mouseX, mouseY);
+        int activeIndex = manager.getActiveIndex();
+        int labelWidth = SIDEBAR_WIDTH - 2 * MARGIN - 16;
+        
+        guiGraphics.enableScissor(0, SIDEBAR_LIST_TOP, SIDEBAR_WIDTH, listBottom);
+        int first = sidebarScrollOffset / SIDEBAR_ITEM_STRIDE;
+        for (int i = first; i < sessions.size(); i++) {
+            int y = SIDEBAR_LIST_TOP + i * SIDEBAR_ITEM_STRIDE - sidebarScrollOffset;
+            if (y >= listBottom) break;
+            ChatSession session = sessions.get(i);
             
             // 绘制项目背景
-            int bgColor = isActive ? SIDEBAR_ITEM_HOVER : (isHovered ? SIDEBAR_ITEM_HOVER : SIDEBAR_ITEM_BG);
-            guiGraphics.fill(MARGIN, y, SIDEBAR_WIDTH - MARGIN, y + itemHeight, bgColor);
-            
-            // 绘制会话标题 - 使用高清渲染
-            guiGraphics.pose().pushPose();
-            guiGraphics.pose().scale(1.0f, 1.0f, 1.0f);
-            guiGraphics.drawString(this.font, session.title, MARGIN + 8, y + 8, 0xFFFFFFFF, false);
-            guiGraphics.pose().popPose();
-            
-            // 绘制预览 - 使用高清渲染
-            String preview = session.getPreview();
-            guiGraphics.pose().pushPose();
-            guiGraphics.pose().scale(1.0f, 1.0f, 1.0f);
-            guiGraphics.drawString(this.font, preview, MARGIN + 8, y + 22, 0xFFCCCCCC, false);
-            guiGraphics.pose().popPose();
+            boolean highlighted = i == activeIndex || i == hoveredIndex;
+            int bgColor = highlighted ? SIDEBAR_ITEM_HOVER : SIDEBAR_ITEM_BG;
+            guiGraphics.fill(MARGIN, y, SIDEBAR_WIDTH - MARGIN, y + SIDEBAR_ITEM_HEIGHT, bgColor);
             
-            y += itemHeight + 4;
+            // 绘制会话标题和预览
+            guiGraphics.drawString(this.font, session.getTitleLabel(this.font, labelWidth), MARGIN + 8, y + 8, 0xFFFFFFFF, false);
+            guiGraphics.drawString(this.font, session.getPreviewLabel(this.font, labelWidth), MARGIN + 8, y + 22, 0xFFCCCCCC, false);
+        }
+        guiGraphics.disableScissor();
+    }
+    
+    private int getSidebarListBottom() {
+        return this.height - MARGIN;
+    }
+    
+    // 会话数量或窗口高度变化后，把侧边栏滚动位置限制在有效范围内
+    private void clampSidebarScroll() {
+        int contentHeight = manager.getSessions().size() * SIDEBAR_ITEM_STRIDE;
+        int maxScroll = Math.max(0, contentHeight - (getSidebarListBottom() - SIDEBAR_LIST_TOP));
+        sidebarScrollOffset = Math.max(0, Math.min(maxScroll, sidebarScrollOffset));
+    }
+    
+    // 由坐标直接算出所在的会话序号，落在间隙或列表外时返回-1
+    private int getSidebarItemAt(double mouseX, double mouseY) {
+        if (mouseX < MARGIN || mouseX > SIDEBAR_WIDTH - MARGIN
+                || mouseY < SIDEBAR_LIST_TOP || mouseY >= getSidebarListBottom()) {
+            return -1;
         }
+        int offset = (int) mouseY - SIDEBAR_LIST_TOP + sidebarScrollOffset;
+        int index = offset / SIDEBAR_ITEM_STRIDE;
+        if (offset % SIDEBAR_ITEM_STRIDE >= SIDEBAR_ITEM_HEIGHT || index >= manager.getSessions().size()) {
+            return -1;
+        }
+        return index;
     }
     
     private void renderChatArea(GuiGraphics guiGraphics, int mouseX, int mouseY) {
@@ -713,54 +995,98 @@ public class AiChatScreen extends Screen {
         guiGraphics.fill(chatX, chatY, chatX + chatWidth, chatY + chatHeight, CHAT_BG);
         
         // 绘制消息
-        int y = chatY + MARGIN - chatScrollOffset;
         int messageWidth = chatWidth - 2 * MARGIN;
+        ChatSession session = manager.getActiveSession();
+        ChatLayoutIndex layoutIndex = manager.getLayoutIndex();
+        int contentTop = chatY + MARGIN - session.scrollOffset;
+        layoutIndex.sync(session.messages, getTextMeasurer(), messageWidth - 40);
+        
+        // 二分查找第一条可见消息，只处理可见范围
+        int count = layoutIndex.size();
+        int first = layoutIndex.findFirstVisible(chatY - contentTop);
+        int end = first;
+        for (; end < count; end++) {
+            // 尺寸变化后只有进入可见范围的消息才重新换行
+            layoutIndex.ensureFresh(end);
+            if (contentTop + layoutIndex.getOffset(end) >= chatY + chatHeight) break;
+        }
         
-        for (ChatMessage message : currentChat) {
-            if (message.content.isEmpty()) continue;
+        // 已完成的消息先绘制到离屏纹理，切换帧缓冲要在启用裁剪之前；正在输出和鼠标悬停的消息每帧直接绘制
+        int boxWidth = messageWidth - 40;
+        textureCache.beginFrame();
+        boolean[] cached = new boolean[end - first];
+        for (int i = first; i < end; i++) {
+            int totalHeight = layoutIndex.getHeight(i);
+            ChatMessage message = session.messages.get(i);
+            if (totalHeight == 0 || message.isStreaming()) continue;
+            int y = contentTop + layoutIndex.getOffset(i);
+            int msgX = message.isUser ? chatX + chatWidth - messageWidth + 20 : chatX + 20;
+            boolean hovered = mouseX >= msgX && mouseX < msgX + boxWidth && mouseY >= y && mouseY < y + totalHeight;
+            if (hovered) continue;
+            MessageLayout layout = layoutIndex.getLayout(i);
+            cached[i - first] = textureCache.prepare(message, boxWidth, totalHeight,
+                    graphics -> renderMessage(graphics, message, layout, 0, 0, messageWidth, totalHeight, 0, totalHeight));
+        }
+        
+        // 裁剪到聊天区域
+        guiGraphics.enableScissor(chatX, chatY, chatX + chatWidth, chatY + chatHeight);
+        for (int i = first; i < end; i++) {
+            int totalHeight = layoutIndex.getHeight(i);
+            if (totalHeight == 0) continue;
             
-            FormattedContent formattedContent = message.getFormattedContent();
-            List<MarkdownElement> elements = formattedContent.elements;
+            ChatMessage message = session.messages.get(i);
+            int y = contentTop + layoutIndex.getOffset(i);
+            int msgX = message.isUser ? chatX + chatWidth - messageWidth + 20 : chatX + 20;
+            if (cached[i - first]) {
+                textureCache.draw(guiGraphics, message, msgX, y);
+            } else {
+                renderMessage(guiGraphics, message, layoutIndex.getLayout(i), msgX, y, messageWidth, totalHeight,
+                        chatY, chatY + chatHeight);
+            }
+        }
+        guiGraphics.disableScissor();
+    }
+    
+    // 以 (msgX, y) 为左上角绘制一条消息的背景和内容，纵向只需绘制 [clipTop, clipBottom) 范围内的部分
+    private void renderMessage(GuiGraphics guiGraphics, ChatMessage message, MessageLayout layout,
+                               int msgX, int y, int messageWidth, int totalHeight, int clipTop, int clipBottom) {
+        // 消息背景
+        int msgBg = message.isUser ? USER_MSG_BG : AI_MSG_BG;
+        guiGraphics.fill(msgX, y, msgX + messageWidth - 40, y + totalHeight, msgBg);
+        
+        // 绘制消息内容
+        int lineY = y + 8;
+        
+        for (int k = 0; k < layout.size(); k++) {
+            MarkdownElement element = layout.getElement(k);
+            ElementLayout elementLayout = layout.getLayout(k);
             
-            // 预计算所有元素的换行和高度
-            int totalHeight = MarkdownParser.calculateContentHeight(elements, this.font, messageWidth - 40);
+            // 之后的元素都在裁剪范围下方
+            if (lineY >= clipBottom) {
+                break;
+            }
+            // 空行和完全在裁剪范围上方的元素只累计高度
+            if (element instanceof EmptyLineElement || lineY + elementLayout.height <= clipTop) {
+                lineY += elementLayout.height;
+                continue;
+            }
             
-            // 只绘制可见的消息
-            if (y + totalHeight > chatY && y < chatY + chatHeight) {
-                // 消息背景
-                int msgBg = message.isUser ? USER_MSG_BG : AI_MSG_BG;
-                int msgX = message.isUser ? chatX + chatWidth - messageWidth + 20 : chatX + 20;
-                guiGraphics.fill(msgX, y, msgX + messageWidth - 40, y + totalHeight, msgBg);
-                
-                // 绘制消息内容
-                int lineY = y + 8;
-                
-                for (MarkdownElement element : elements) {
-                    if (element instanceof EmptyLineElement) {
-                        lineY += element.getHeight();
-                        continue;
-                    }
-                    
-                    if (element instanceof SeparatorElement) {
-                        // 绘制分隔线
-                        int separatorY = lineY + 8;
-                        guiGraphics.fill(msgX + 8, separatorY, msgX + messageWidth - 48, separatorY + 1, 0xFF888888);
-                        lineY += element.getHeight();
-                        continue;
-                    }
-                    
-                    // 计算缩进
-                    int indentX = msgX + 8 + (element.indentLevel * 16);
-                    
-                    // 使用元素自身的渲染方法
-                    element.render(guiGraphics, this.font, indentX, lineY, messageWidth - 40);
-                    
-                    // 使用元素的实际高度
-                    lineY += element.getHeight();
-                }
+            if (element instanceof SeparatorElement) {
+                // 绘制分隔线
+                int separatorY = lineY + 8;
+                guiGraphics.fill(msgX + 8, separatorY, msgX + messageWidth - 48, separatorY + 1, 0xFF888888);
+                lineY += elementLayout.height;
+                continue;
             }
             
-            y += totalHeight + 16; // 消息间距
+            // 计算缩进
+            int indentX = msgX + 8 + (element.indentLevel * 16);
+            
+            // 使用元素自身的渲染方法和缓存的布局
+            element.render(guiGraphics, this.font, indentX, lineY, messageWidth - 40, elementLayout, clipTop, clipBottom);
+            
+            // 使用布局的实际高度
+            lineY += elementLayout.height;
         }
     }
     
@@ -775,6 +1101,11 @@ public class AiChatScreen extends Screen {
 
     @Override
     public boolean keyPressed(int keyCode, int scanCode, int modifiers) {
+        // 界面打开时游戏内按键不生效，调试面板的开关在这里处理
+        if (KeyBindings.TOGGLE_METRICS_KEY.matches(keyCode, scanCode)) {
+            MetricsOverlay.toggle();
+            return true;
+        }
         // 优先处理输入框的按键事件
         if (inputField != null && inputField.isFocused()) {
             if (keyCode == 257 && !inputField.getValue().trim().isEmpty()) { // Enter键
@@ -790,14 +1121,14 @@ public class AiChatScreen extends Screen {
     @Override
     public boolean mouseClicked(double mouseX, double mouseY, int button) {
         // 检查是否点击了侧边栏的聊天项目
-        if (mouseX >= MARGIN && mouseX <= SIDEBAR_WIDTH - MARGIN && mouseY >= 60) {
-            int itemIndex = ((int)mouseY - 60) / 54; // 50像素高度 + 4像素间距
-            if (itemIndex >= 0 && itemIndex < chatSessions.size()) {
-                activeChatIndex = itemIndex;
-                currentChat = chatSessions.get(itemIndex).messages;
-                chatScrollOffset = 0;
-                return true;
-            }
+        int itemIndex = getSidebarItemAt(mouseX, mouseY);
+        if (itemIndex >= 0) {
+            manager.selectSession(itemIndex);
+            return true;
+        }
+        
+        if (copyCodeBlockAt(mouseX, mouseY)) {
+            return true;
         }
         
         // 先调用父类方法处理所有组件的点击
@@ -813,6 +1144,50 @@ public class AiChatScreen extends Screen {
         return result;
     }
 
+    // 点击代码块的复制按钮时把整个代码块复制到剪贴板，坐标计算与 renderChatArea 相同
+    private boolean copyCodeBlockAt(double mouseX, double mouseY) {
+        int chatX = SIDEBAR_WIDTH + MARGIN;
+        int chatY = MARGIN + 30;
+        int chatWidth = this.width - SIDEBAR_WIDTH - 2 * MARGIN;
+        int chatHeight = this.height - chatY - INPUT_HEIGHT - 2 * MARGIN;
+        if (mouseX < chatX || mouseX >= chatX + chatWidth || mouseY < chatY || mouseY >= chatY + chatHeight) {
+            return false;
+        }
+        
+        int messageWidth = chatWidth - 2 * MARGIN;
+        ChatSession session = manager.getActiveSession();
+        ChatLayoutIndex layoutIndex = manager.getLayoutIndex();
+        int contentTop = chatY + MARGIN - session.scrollOffset;
+        layoutIndex.sync(session.messages, getTextMeasurer(), messageWidth - 40);
+        int index = layoutIndex.findFirstVisible((int) mouseY - contentTop);
+        if (index >= layoutIndex.size()) {
+            return false;
+        }
+        layoutIndex.ensureFresh(index);
+        int y = contentTop + layoutIndex.getOffset(index);
+        if (mouseY < y || layoutIndex.getHeight(index) == 0) {
+            return false;
+        }
+        
+        ChatMessage message = session.messages.get(index);
+        MessageLayout layout = layoutIndex.getLayout(index);
+        int msgX = message.isUser ? chatX + chatWidth - messageWidth + 20 : chatX + 20;
+        int lineY = y + 8;
+        for (int k = 0; k < layout.size() && lineY <= mouseY; k++) {
+            MarkdownElement element = layout.getElement(k);
+            if (element instanceof CodeBlockElement block) {
+                int indentX = msgX + 8 + (element.indentLevel * 16);
+                if (block.isOnCopyButton(this.font, indentX, lineY, messageWidth - 40, mouseX, mouseY)) {
+                    this.minecraft.keyboardHandler.setClipboard(block.getCode());
+                    codeCopiedAt = System.currentTimeMillis();
+                    return true;
+                }
+            }
+            lineY += layout.getLayout(k).height;
+        }
+        return false;
+    }
+
     @Override
     public boolean mouseScrolled(double mouseX, double mouseY, double delta) {
         if (mouseX > SIDEBAR_WIDTH) {
@@ -822,7 +1197,17 @@ public class AiChatScreen extends Screen {
             int chatHeight = this.height - chatY - INPUT_HEIGHT - 2 * MARGIN;
             int maxScroll = Math.max(0, totalHeight - chatHeight);
             
-            chatScrollOffset = Math.max(0, Math.min(maxScroll, chatScrollOffset - (int)(delta * 20)));
+            ChatSession session = manager.getActiveSession();
+            session.scrollOffset = Math.max(0, Math.min(maxScroll, session.scrollOffset - (int)(delta * 20)));
+            if (session.scrollOffset == 0) {
+                manager.loadOlderHistory();
+            }
+            return true;
+        }
+        if (mouseY >= SIDEBAR_LIST_TOP) {
+            // 侧边栏会话列表滚动
+            sidebarScrollOffset -= (int)(delta * 20);
+            clampSidebarScroll();
             return true;
         }
         return false;
@@ -833,11 +1218,18 @@ public class AiChatScreen extends Screen {
         return false;
     }
     
+    @Override
+    public void removed() {
+        super.removed();
+        textureCache.clear();
+    }
+    
     @Override
     public void onClose() {
         super.onClose();
-        if (chatClient != null) {
-            chatClient.close();
+        // 会话和进行中的回复由管理器保留，不需要后台生成时才断开请求
+        if (!ClientConfig.isBackgroundStreaming()) {
+            manager.stopGenerating();
         }
     }
 
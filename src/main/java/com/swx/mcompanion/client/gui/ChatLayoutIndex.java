@@ -0,0 +1,171 @@
+package com.swx.mcompanion.client.gui;
+
+import com.swx.mcompanion.client.gui.AiChatScreen.ChatMessage;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 聊天消息的布局索引。
+ * 缓存每条消息的高度和前缀和偏移，用二分查找定位第一条可见消息，
+ * 这样渲染和滚动的开销只与可见消息数有关，而不会随历史长度增长。
+ * 只有仍在流式输出的消息会在每次同步时重新检查。
+ * 宽度或字体变化后，已有高度保留为估计值，消息进入可见范围时才通过 {@link #ensureFresh(int)} 重新布局。
+ */
+public class ChatLayoutIndex {
+    // 消息之间的间距
+    public static final int MESSAGE_SPACING = 16;
+
+    private final LayoutCache layoutCache;
+    private List<ChatMessage> messages;
+    private TextMeasurer measurer;
+    private int width = -1;
+    private int count = 0;
+    private int[] heights = new int[16];
+    private int[] versions = new int[16];
+    // 宽度或字体每变化一次递增，与 generations[i] 不同的条目只是估计值
+    private int generation = 0;
+    private int[] generations = new int[16];
+    // offsets[i] 为第i条消息的顶部偏移，offsets[count] 为全部消息的总高度
+    private int[] offsets = new int[17];
+    // 第一条可能仍在变化的消息（正在流式输出，或上次同步时刚新增、刚变化），之前的消息都不会再变化
+    private int firstUnstable = 0;
+
+    public ChatLayoutIndex(LayoutCache layoutCache) {
+        this.layoutCache = layoutCache;
+    }
+
+    /**
+     * 让索引与消息列表保持一致：新消息会被测量，仍在变化的消息按版本号复查。
+     */
+    public void sync(List<ChatMessage> messages, TextMeasurer measurer, int width) {
+        if (messages != this.messages) {
+            this.messages = messages;
+            count = 0;
+            firstUnstable = 0;
+        }
+        if (measurer != this.measurer || width != this.width) {
+            // 旧高度保留为估计值，等消息可见时再重新布局
+            this.measurer = measurer;
+            this.width = width;
+            generation++;
+            layoutCache.retain(measurer, width);
+        }
+        int size = messages.size();
+        if (size < count) {
+            count = size;
+            firstUnstable = Math.min(firstUnstable, count);
+        }
+
+        // 复查可能仍在变化的消息；这次发现变化的消息也保留在复查范围内，下次同步再确认一次
+        int dirtyFrom = count;
+        int nextUnstable = count;
+        for (int i = firstUnstable; i < count; i++) {
+            ChatMessage message = messages.get(i);
+            boolean changed = message.getVersion() != versions[i];
+            if (changed || generations[i] != generation) {
+                measure(i, message);
+                dirtyFrom = Math.min(dirtyFrom, i);
+            }
+            if ((changed || message.isStreaming()) && nextUnstable == count) {
+                nextUnstable = i;
+            }
+        }
+        firstUnstable = nextUnstable;
+
+        // 测量新增的消息
+        if (size > count) {
+            ensureCapacity(size);
+            for (int i = count; i < size; i++) {
+                ChatMessage message = messages.get(i);
+                measure(i, message);
+            }
+            // 新增的消息在下次同步时再复查一次，创建后马上被修改的也不会漏掉
+            firstUnstable = Math.min(firstUnstable, count);
+            dirtyFrom = Math.min(dirtyFrom, count);
+            count = size;
+        }
+
+        // 只更新受影响部分的前缀和
+        for (int i = dirtyFrom; i < count; i++) {
+            offsets[i + 1] = offsets[i] + (heights[i] > 0 ? heights[i] + MESSAGE_SPACING : 0);
+        }
+    }
+
+    /**
+     * 确保第 index 条消息按当前宽度测量过，必要时重新布局并修正之后的前缀和。
+     */
+    public void ensureFresh(int index) {
+        if (generations[index] == generation) {
+            return;
+        }
+        int oldHeight = heights[index];
+        measure(index, messages.get(index));
+        if (heights[index] != oldHeight) {
+            for (int i = index; i < count; i++) {
+                offsets[i + 1] = offsets[i] + (heights[i] > 0 ? heights[i] + MESSAGE_SPACING : 0);
+            }
+        }
+    }
+
+    public MessageLayout getLayout(int index) {
+        return layoutCache.get(messages.get(index), measurer, width);
+    }
+
+    public void invalidate() {
+        messages = null;
+        count = 0;
+        firstUnstable = 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int getHeight(int index) {
+        return heights[index];
+    }
+
+    public int getOffset(int index) {
+        return offsets[index];
+    }
+
+    // 所有消息占用的总高度（含消息间距）
+    public int getTotalHeight() {
+        return offsets[count];
+    }
+
+    /**
+     * 二分查找第一条底部超过 top 的消息（内容坐标系），找不到时返回 size()。
+     */
+    public int findFirstVisible(int top) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (offsets[mid] + heights[mid] > top) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    private void measure(int index, ChatMessage message) {
+        heights[index] = message.isEmpty() ? 0 : layoutCache.get(message, measurer, width).height;
+        versions[index] = message.getVersion();
+        generations[index] = generation;
+    }
+
+    private void ensureCapacity(int size) {
+        if (heights.length >= size) {
+            return;
+        }
+        int capacity = Math.max(size, heights.length * 2);
+        heights = Arrays.copyOf(heights, capacity);
+        versions = Arrays.copyOf(versions, capacity);
+        generations = Arrays.copyOf(generations, capacity);
+        offsets = Arrays.copyOf(offsets, capacity + 1);
+    }
+}
@@ -0,0 +1,354 @@
+package com.swx.mcompanion.client.gui;
+
+import com.swx.mcompanion.client.chat.ChatHistoryStore;
+import com.swx.mcompanion.client.chat.HistoryPage;
+import com.swx.mcompanion.client.chat.SessionInfo;
+import com.swx.mcompanion.client.chat.StoredMessage;
+import com.swx.mcompanion.client.gui.AiChatScreen.ChatMessage;
+import com.swx.mcompanion.client.gui.AiChatScreen.ChatSession;
+import com.swx.mcompanion.client.network.ChatRequest;
+import com.swx.mcompanion.client.network.SimpleAiChatClient;
+import com.swx.mcompanion.client.network.StreamEventQueue;
+import com.swx.mcompanion.client.network.StreamListener;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.Font;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * 客户端范围内的聊天会话管理器，生命周期与游戏客户端一致，而不是与界面一致。
+ * 持有会话列表、进行中的回复、布局缓存和每个会话的滚动位置，
+ * {@link AiChatScreen} 只是它的视图，重新打开界面时直接接上现有状态。
+ * 界面关闭期间，流式事件在客户端tick中继续处理。
+ * 所有方法都只在客户端主线程（渲染线程）上调用。
+ */
+public final class ChatSessionManager {
+    // 每次从历史记录加载的消息条数
+    private static final int HISTORY_PAGE_SIZE = 50;
+    private static ChatSessionManager instance;
+
+    private final ChatHistoryStore historyStore;
+    private final List<ChatSession> sessions = new ArrayList<>();
+    private int activeIndex = 0;
+    private final LayoutCache layoutCache = new LayoutCache();
+    private final ChatLayoutIndex layoutIndex = new ChatLayoutIndex(layoutCache);
+    // 布局缓存和布局索引按测量器的身份区分，每次打开界面都换一个会让缓存全部失效
+    private FontTextMeasurer textMeasurer;
+
+    // 进行中的回复
+    private ChatRequest activeRequest;
+    // 当前回复的事件队列，由主线程每帧（或每tick）合并处理
+    private StreamEventQueue pendingStream;
+    private ChatMessage streamingMessage;
+    private ChatSession streamingSession;
+    // 正在写入历史记录的回复序号
+    private int streamingIndex;
+    // 当前回复的连接状态（正在重试、正在续传等），正常时为 null
+    private String connectionStatus;
+    private final StreamListener streamHandler = new StreamListener() {
+        @Override
+        public void onDelta(String delta, long sequence, Supplier<String> snapshot) {
+            onStreamDelta(delta);
+        }
+
+        @Override
+        public void onComplete(String fullMessage) {
+            ChatSessionManager.this.onComplete(fullMessage);
+        }
+
+        @Override
+        public void onError(String error) {
+            ChatSessionManager.this.onError(error);
+        }
+
+        @Override
+        public void onStatus(String status) {
+            connectionStatus = status;
+        }
+    };
+
+    private ChatSessionManager() {
+        this.historyStore = ChatHistoryStore.get();
+        // 从历史索引恢复会话列表，没有历史时创建一个新会话
+        for (SessionInfo info : historyStore.listSessions()) {
+            sessions.add(new ChatSession(info));
+        }
+        if (sessions.isEmpty()) {
+            sessions.add(new ChatSession("chat_" + System.currentTimeMillis(), "新对话"));
+        }
+        loadHistory(sessions.get(0));
+    }
+
+    public static ChatSessionManager get() {
+        if (instance == null) {
+            instance = new ChatSessionManager();
+        }
+        return instance;
+    }
+
+    // 界面关闭时处理后台回复，管理器还没创建时什么也不做
+    public static void onClientTick() {
+        if (instance != null) {
+            instance.drainPendingStream();
+        }
+    }
+
+    /**
+     * 游戏退出时结束进行中的回复，已收到的部分写入历史记录。
+     */
+    public static void shutdown() {
+        if (instance != null) {
+            instance.stopGenerating();
+            instance = null;
+        }
+    }
+
+    // ---- 会话 ----
+
+    public List<ChatSession> getSessions() {
+        return Collections.unmodifiableList(sessions);
+    }
+
+    public int getActiveIndex() {
+        return activeIndex;
+    }
+
+    public ChatSession getActiveSession() {
+        return sessions.get(activeIndex);
+    }
+
+    public ChatLayoutIndex getLayoutIndex() {
+        return layoutIndex;
+    }
+
+    // 字体不变时始终返回同一个测量器，只有字体对象更换（如切换资源包）时才新建
+    public TextMeasurer getTextMeasurer(Font font) {
+        if (textMeasurer == null || textMeasurer.getFont() != font) {
+            textMeasurer = new FontTextMeasurer(font);
+        }
+        return textMeasurer;
+    }
+
+    public void selectSession(int index) {
+        if (index < 0 || index >= sessions.size() || index == activeIndex) {
+            return;
+        }
+        deactivateSession(sessions.get(activeIndex));
+        activeIndex = index;
+        activateSession(sessions.get(index));
+    }
+
+    public void createNewChat() {
+        deactivateSession(sessions.get(activeIndex));
+        String newId = "chat_" + System.currentTimeMillis();
+        sessions.add(0, new ChatSession(newId, "新对话"));
+        activeIndex = 0;
+    }
+
+    // ---- 发送与流式回复 ----
+
+    public boolean isWaitingForResponse() {
+        return activeRequest != null;
+    }
+
+    public String getConnectionStatus() {
+        return connectionStatus;
+    }
+
+    /**
+     * 在当前会话中发送消息并开始接收回复。
+     */
+    public void sendMessage(String message) {
+        if (isWaitingForResponse()) {
+            return;
+        }
+        ChatSession session = getActiveSession();
+        ChatMessage userMessage = addMessage(session, message, true);
+
+        // 更新会话标题（使用第一条消息）
+        if (!session.persisted) {
+            session.title = message.length() > 20 ? message.substring(0, 20) + "..." : message;
+            session.storedPreview = message;
+            historyStore.createSession(session.id, session.title, session.createdTime);
+            session.persisted = true;
+        }
+        historyStore.appendMessage(session.id, true, userMessage.timestamp, message);
+
+        // 添加AI回复占位符
+        streamingMessage = addMessage(session, "", false);
+        streamingMessage.beginStream();
+        streamingSession = session;
+        streamingIndex = historyStore.beginReply(session.id, streamingMessage.timestamp);
+
+        // 发送请求，回调先进入队列，主线程再统一处理
+        pendingStream = new StreamEventQueue();
+        activeRequest = session.getClient().sendMessage(message, pendingStream);
+    }
+
+    /**
+     * 在当前会话中显示一条提示，不写入历史记录。
+     */
+    public void addNotice(String notice) {
+        addMessage(getActiveSession(), notice, false);
+    }
+
+    // 取消进行中的回复：断开连接，已收到的内容保留为最终消息
+    public void stopGenerating() {
+        if (activeRequest == null) {
+            return;
+        }
+        activeRequest.cancel();
+        // 先处理已经到达的事件，之后队列不会再有新事件
+        drainPendingStream();
+        pendingStream = null;
+        if (streamingMessage != null) {
+            String partial = streamingMessage.getContent();
+            String finalContent = partial.isEmpty() ? "（已停止生成）" : partial;
+            streamingMessage.finishStream(finalContent);
+            endPersistedReply(finalContent);
+        }
+        resetStreamState();
+    }
+
+    // 处理两帧之间到达的所有流式事件
+    public void drainPendingStream() {
+        if (pendingStream != null && pendingStream.drain(streamHandler)) {
+            pendingStream = null;
+        }
+    }
+
+    private void onStreamDelta(String delta) {
+        // 增量更新AI回复占位消息，已冻结的元素保持不变
+        if (streamingMessage != null) {
+            streamingMessage.appendStream(delta);
+            historyStore.appendReply(streamingSession.id, streamingIndex, delta);
+        }
+    }
+
+    private void onComplete(String finalMessage) {
+        // 确保最终消息正确显示
+        if (streamingMessage != null) {
+            streamingMessage.finishStream(finalMessage);
+        }
+        endPersistedReply(finalMessage);
+        resetStreamState();
+    }
+
+    private void onError(String error) {
+        // 错误提示不写入历史记录，已收到的部分回复照常保存
+        ChatSession session = streamingSession;
+        String partial = streamingMessage != null ? streamingMessage.getContent() : "";
+        if (streamingMessage != null) {
+            // 已收到的部分保留为最终内容，消息不再处于流式状态
+            streamingMessage.finishStream(partial);
+        }
+        endPersistedReply(partial);
+        resetStreamState();
+        if (session != null) {
+            addMessage(session, "错误: " + error, false);
+        }
+    }
+
+    // 把回复的最终内容写入历史记录
+    private void endPersistedReply(String finalContent) {
+        if (streamingSession != null) {
+            historyStore.endReply(streamingSession.id, streamingIndex, finalContent);
+        }
+    }
+
+    private void resetStreamState() {
+        streamingMessage = null;
+        streamingSession = null;
+        activeRequest = null;
+        connectionStatus = null;
+    }
+
+    private ChatMessage addMessage(ChatSession session, String content, boolean isUser) {
+        ChatMessage message = new ChatMessage(content, isUser);
+        session.messages.add(message);
+        // 视图下一帧自动滚动到底部
+        session.scrollToBottomPending = true;
+        return message;
+    }
+
+    // ---- 历史记录与内存预算 ----
+
+    // 离开的会话登记到全局缓存，超出内存预算时整个释放，再次打开时从历史记录重新加载
+    private void deactivateSession(ChatSession session) {
+        // 未保存或仍在写入回复的会话不能释放
+        if (!session.persisted || !session.historyLoaded || session == streamingSession) {
+            return;
+        }
+        MessageCache cache = MessageCache.get();
+        long bytes = 64;
+        for (ChatMessage message : session.messages) {
+            // 有解析结果或布局的消息已经由各自的缓存条目计入预算，这里只计还没有条目的消息
+            if (!cache.contains(message)) {
+                bytes += 64 + 2L * message.getContent().length();
+            }
+        }
+        cache.trackSession(session, bytes, () -> releaseSession(session));
+    }
+
+    private void activateSession(ChatSession session) {
+        MessageCache.get().untrackSession(session);
+        loadHistory(session);
+    }
+
+    private void releaseSession(ChatSession session) {
+        MessageCache.get().removeAll(session.messages);
+        session.messages.clear();
+        session.historyLoaded = false;
+        session.historyPage = null;
+        session.scrollOffset = 0;
+    }
+
+    // 异步加载会话最近的一页历史消息
+    private void loadHistory(ChatSession session) {
+        if (!session.persisted || session.historyLoaded || session.loadingHistory) {
+            return;
+        }
+        session.loadingHistory = true;
+        historyStore.loadLatest(session.id, HISTORY_PAGE_SIZE)
+                .thenAcceptAsync(page -> onHistoryLoaded(session, page), Minecraft.getInstance());
+    }
+
+    // 滚动到顶部时继续加载更早的消息
+    public void loadOlderHistory() {
+        ChatSession session = getActiveSession();
+        if (session.historyPage == null || !session.historyPage.hasOlder() || session.loadingHistory) {
+            return;
+        }
+        session.loadingHistory = true;
+        historyStore.loadOlder(session.historyPage, HISTORY_PAGE_SIZE)
+                .thenAcceptAsync(page -> onHistoryLoaded(session, page), Minecraft.getInstance());
+    }
+
+    // 把读到的历史消息插到会话开头，并让视图保持当前可见的内容不跳动
+    private void onHistoryLoaded(ChatSession session, HistoryPage page) {
+        boolean firstPage = !session.historyLoaded;
+        session.historyLoaded = true;
+        session.historyPage = page;
+        session.loadingHistory = false;
+        if (page.messages.isEmpty()) {
+            return;
+        }
+        List<ChatMessage> loaded = new ArrayList<>(page.messages.size());
+        for (StoredMessage stored : page.messages) {
+            loaded.add(new ChatMessage(stored.content, stored.isUser, stored.timestamp));
+        }
+        if (firstPage) {
+            session.scrollToBottomPending = true;
+        } else if (session == getActiveSession() && layoutIndex.size() == session.messages.size()) {
+            // 记录插入前视口到内容底部的距离，视图重新测量后据此恢复滚动位置
+            session.bottomAnchor = layoutIndex.getTotalHeight() - session.scrollOffset;
+        }
+        session.messages.addAll(0, loaded);
+        if (session == getActiveSession()) {
+            layoutIndex.invalidate();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.swx.mcompanion.client.gui;
+
+import net.minecraft.client.gui.Font;
+import net.minecraft.network.chat.FormattedText;
+import net.minecraft.network.chat.Style;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基于Minecraft字体的文本测量实现，换行规则与 {@link Font#split} 相同。
+ */
+public class FontTextMeasurer implements TextMeasurer {
+    private final Font font;
+
+    public FontTextMeasurer(Font font) {
+        this.font = font;
+    }
+
+    public Font getFont() {
+        return font;
+    }
+
+    @Override
+    public int width(String text) {
+        return font.width(text);
+    }
+
+    @Override
+    public List<String> split(String text, int maxWidth) {
+        List<FormattedText> parts = font.getSplitter().splitLines(text, maxWidth, Style.EMPTY);
+        List<String> lines = new ArrayList<>(parts.size());
+        for (FormattedText part : parts) {
+            lines.add(part.getString());
+        }
+        return lines;
+    }
+}
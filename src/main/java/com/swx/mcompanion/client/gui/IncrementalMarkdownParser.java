@@ -0,0 +1,124 @@
+package com.swx.mcompanion.client.gui;
+
+import com.swx.mcompanion.client.gui.AiChatScreen.FormattedContent;
+import com.swx.mcompanion.client.gui.AiChatScreen.MarkdownElement;
+import com.swx.mcompanion.client.gui.AiChatScreen.MarkdownParser;
+import com.swx.mcompanion.client.metrics.ClientMetrics;
+import com.swx.mcompanion.client.metrics.JfrEvents;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 流式回复用的增量Markdown解析器。
+ * 已经以换行结束的行解析一次后就冻结（连同元素上缓存的换行结果），
+ * 新文本到达时只重新解析末尾尚未结束的那一行，解析结果与
+ * {@link MarkdownParser#parseMarkdown(String)} 对同一全文的结果一致。
+ */
+public class IncrementalMarkdownParser {
+    private final StringBuilder text = new StringBuilder();
+    private final List<MarkdownElement> elements = new ArrayList<>();
+    private final FormattedContent formattedContent = new FormattedContent(Collections.unmodifiableList(elements), 0);
+    // 冻结行之后的解析状态
+    private final MarkdownParser.ParseState state = new MarkdownParser.ParseState();
+    // 冻结元素的数量，之后的元素属于末尾未结束的行
+    private int frozenCount = 0;
+    // 最后一个冻结的元素。末尾未结束的代码行会临时并入它所在的代码块，重新解析末行前要换回来
+    private MarkdownElement lastFrozen;
+    // 末尾未结束行的起始位置
+    private int openLineStart = 0;
+    // 已结束但暂不输出的空行数：与 String.split 一致，末尾的空行只有在后面出现内容时才生效
+    private int pendingEmptyLines = 0;
+
+    public void append(CharSequence delta) {
+        if (delta.length() == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        JfrEvents.MarkdownParse event = new JfrEvents.MarkdownParse();
+        event.begin();
+        int scanFrom = text.length();
+        text.append(delta);
+
+        // 冻结本次新结束的行
+        for (int i = scanFrom; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                freezeLine(openLineStart, i);
+                openLineStart = i + 1;
+            }
+        }
+
+        rebuildTail();
+        ClientMetrics.PARSE.recordSince(start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.chars = delta.length();
+            event.incremental = true;
+            event.commit();
+        }
+    }
+
+    public FormattedContent getFormattedContent() {
+        return formattedContent;
+    }
+
+    public int length() {
+        return text.length();
+    }
+
+    public String getText() {
+        return text.toString();
+    }
+
+    private void freezeLine(int start, int end) {
+        if (start == end) {
+            pendingEmptyLines++;
+            return;
+        }
+        truncateToFrozen();
+        for (; pendingEmptyLines > 0; pendingEmptyLines--) {
+            freezeElement(MarkdownLexer.lexLine("", 0, 0, state));
+        }
+        freezeElement(MarkdownLexer.lexLine(text, start, end, state));
+    }
+
+    private void freezeElement(MarkdownElement element) {
+        if (element == null) {
+            return;
+        }
+        if (!MarkdownLexer.mergeCodeLine(elements, element)) {
+            elements.add(element);
+            frozenCount++;
+        }
+        lastFrozen = elements.get(frozenCount - 1);
+    }
+
+    // 只重新解析末尾未结束的行，冻结状态保持不变
+    private void rebuildTail() {
+        truncateToFrozen();
+        if (openLineStart >= text.length()) {
+            return;
+        }
+        MarkdownParser.ParseState tailState = state.copy();
+        for (int i = 0; i < pendingEmptyLines; i++) {
+            addIfPresent(MarkdownLexer.lexLine("", 0, 0, tailState));
+        }
+        addIfPresent(MarkdownLexer.lexLine(text, openLineStart, text.length(), tailState));
+    }
+
+    private void addIfPresent(MarkdownElement element) {
+        if (element != null && !MarkdownLexer.mergeCodeLine(elements, element)) {
+            elements.add(element);
+        }
+    }
+
+    private void truncateToFrozen() {
+        while (elements.size() > frozenCount) {
+            elements.remove(elements.size() - 1);
+        }
+        if (frozenCount > 0 && elements.get(frozenCount - 1) != lastFrozen) {
+            elements.set(frozenCount - 1, lastFrozen);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.swx.mcompanion.client.gui;
+
+import com.swx.mcompanion.client.gui.AiChatScreen.ChatMessage;
+
+/**
+ * 消息布局缓存，按（内容版本, 可用宽度, 字体对应的测量器）判断是否有效。
+ * 窗口尺寸或GUI缩放变化后旧布局不会再被使用，只有重新取用的消息才会重新换行。
+ * 布局本身保存在按内存预算淘汰的 {@link MessageCache} 中，被淘汰后会重新计算。
+ */
+public class LayoutCache {
+    private final MessageCache cache;
+
+    public LayoutCache() {
+        this(MessageCache.get());
+    }
+
+    public LayoutCache(MessageCache cache) {
+        this.cache = cache;
+    }
+
+    public MessageLayout get(ChatMessage message, TextMeasurer measurer, int width) {
+        return cache.getLayout(message, measurer, width);
+    }
+
+    // 丢弃不是当前宽度和字体的布局
+    public void retain(TextMeasurer measurer, int width) {
+        cache.retainLayouts(measurer, width);
+    }
+}
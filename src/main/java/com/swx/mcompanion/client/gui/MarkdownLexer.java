@@ -0,0 +1,241 @@
+package com.swx.mcompanion.client.gui;
+
+import com.swx.mcompanion.client.gui.AiChatScreen.CodeBlockElement;
+import com.swx.mcompanion.client.gui.AiChatScreen.EmptyLineElement;
+import com.swx.mcompanion.client.gui.AiChatScreen.HeadingElement;
+import com.swx.mcompanion.client.gui.AiChatScreen.ListElement;
+import com.swx.mcompanion.client.gui.AiChatScreen.MarkdownElement;
+import com.swx.mcompanion.client.gui.AiChatScreen.MarkdownParser.ParseState;
+import com.swx.mcompanion.client.gui.AiChatScreen.ParagraphElement;
+import com.swx.mcompanion.client.gui.AiChatScreen.SeparatorElement;
+import com.swx.mcompanion.client.gui.AiChatScreen.TextFragment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 手写的单遍Markdown词法分析器，直接在 {@link CharSequence} 上按下标扫描，
+ * 不拆分字符串、不使用正则，只在生成元素文本时才创建子串。
+ * 规则与原先基于正则的逐行解析完全一致（包括 trim 和正则中 {@code .}、{@code \s} 的语义）。
+ */
+public final class MarkdownLexer {
+    private static final String EMPTY = "";
+
+    private MarkdownLexer() {
+    }
+
+    /**
+     * 解析整段文本并把元素追加到 out。
+     * 与 {@code content.split("\n")} 一致，末尾的空行不产生元素。
+     */
+    public static void lex(CharSequence text, ParseState state, List<MarkdownElement> out) {
+        int length = text.length();
+        int lineStart = 0;
+        int pendingEmptyLines = 0;
+        while (lineStart <= length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && text.charAt(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            if (lineEnd == lineStart) {
+                pendingEmptyLines++;
+            } else {
+                for (; pendingEmptyLines > 0; pendingEmptyLines--) {
+                    addIfPresent(out, lexLine(EMPTY, 0, 0, state));
+                }
+                addIfPresent(out, lexLine(text, lineStart, lineEnd, state));
+            }
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    /**
+     * 解析 [start, end) 范围内的一行（不含换行符），不产生元素时返回null。
+     */
+    public static MarkdownElement lexLine(CharSequence s, int start, int end, ParseState state) {
+        // 等价于 String.trim()
+        int ts = start;
+        int te = end;
+        while (ts < te && s.charAt(ts) <= ' ') ts++;
+        while (te > ts && s.charAt(te - 1) <= ' ') te--;
+
+        // 代码块
+        if (te - ts >= 3 && s.charAt(ts) == '`' && s.charAt(ts + 1) == '`' && s.charAt(ts + 2) == '`') {
+            state.inCodeBlock = !state.inCodeBlock;
+            return state.inCodeBlock ? null : new EmptyLineElement();
+        }
+
+        if (state.inCodeBlock) {
+            return new CodeBlockElement(s.subSequence(start, end).toString());
+        }
+
+        // 空行
+        if (ts == te) {
+            state.listNumber = 1; // 重置列表编号
+            return new EmptyLineElement();
+        }
+
+        char first = s.charAt(ts);
+
+        // 分隔线
+        if (te - ts >= 3 && isSeparator(s, ts, te)) {
+            return new SeparatorElement();
+        }
+
+        // 标题：级别按未trim的行首 # 个数计算
+        if (first == '#') {
+            int level = 0;
+            while (start + level < end && s.charAt(start + level) == '#') {
+                level++;
+            }
+            return new HeadingElement(trimmed(s, start + level, end), level);
+        }
+
+        // 有序列表
+        if (first >= '0' && first <= '9') {
+            int i = ts + 1;
+            while (i < te && s.charAt(i) >= '0' && s.charAt(i) <= '9') i++;
+            if (i < te && s.charAt(i) == '.') {
+                int textStart = skipWhitespace(s, i + 1, te);
+                if (textStart > i + 1 && !hasLineTerminator(s, textStart, te)) {
+                    return new ListElement(s.subSequence(textStart, te).toString(), true,
+                            state.listNumber++, getIndentLevel(s, start, end));
+                }
+            }
+        }
+
+        // 无序列表
+        if (isListMarker(first)) {
+            int textStart = skipWhitespace(s, ts + 1, te);
+            if (textStart > ts + 1 && !hasLineTerminator(s, textStart, te)) {
+                return new ListElement(s.subSequence(textStart, te).toString(), false, 0, getIndentLevel(s, start, end));
+            }
+        }
+
+        // 缩进列表项：行首至少两个空白后跟列表标记
+        int lead = skipWhitespace(s, start, end);
+        if (lead - start >= 2 && lead < end && isListMarker(s.charAt(lead))) {
+            int afterMarker = skipWhitespace(s, lead + 1, end);
+            if (afterMarker > lead + 1 && !hasLineTerminator(s, afterMarker, end)) {
+                int textStart = ts;
+                if (isListMarker(first)) {
+                    int skipped = skipWhitespace(s, ts + 1, te);
+                    if (skipped > ts + 1) {
+                        textStart = skipped;
+                    }
+                }
+                return new ListElement(s.subSequence(textStart, te).toString(), false, 0, getIndentLevel(s, start, end) + 1);
+            }
+        }
+
+        // 普通段落，行内片段在同一次扫描中生成
+        return new ParagraphElement(s.subSequence(ts, te).toString(), getIndentLevel(s, start, end), lexInline(s, ts, te));
+    }
+
+    /**
+     * 扫描行内的粗体（**）、斜体（*）和行内代码（`）标记，返回去掉标记后的文本片段。
+     */
+    public static List<TextFragment> lexInline(CharSequence s, int start, int end) {
+        List<TextFragment> fragments = new ArrayList<>();
+        boolean inBold = false, inItalic = false, inCode = false;
+        int runStart = start;
+
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c != '*' && c != '`') {
+                continue;
+            }
+            if (i > runStart) {
+                fragments.add(new TextFragment(s.subSequence(runStart, i).toString(), inBold, inItalic, inCode));
+            }
+            if (c == '`') {
+                inCode = !inCode;
+            } else if (i + 1 < end && s.charAt(i + 1) == '*') {
+                inBold = !inBold;
+                i++; // 跳过第二个*
+            } else {
+                inItalic = !inItalic;
+            }
+            runStart = i + 1;
+        }
+
+        if (end > runStart) {
+            fragments.add(new TextFragment(s.subSequence(runStart, end).toString(), inBold, inItalic, inCode));
+        }
+        return fragments;
+    }
+
+    private static void addIfPresent(List<MarkdownElement> out, MarkdownElement element) {
+        if (element != null && !mergeCodeLine(out, element)) {
+            out.add(element);
+        }
+    }
+
+    /**
+     * 连续的代码行合并到前一个代码块元素中。代码块的结束标记会产生一个空行元素，
+     * 所以相邻的代码行总是属于同一个代码块。
+     *
+     * @return 已经合并时返回true
+     */
+    static boolean mergeCodeLine(List<MarkdownElement> out, MarkdownElement element) {
+        if (element instanceof CodeBlockElement line && !out.isEmpty()
+                && out.get(out.size() - 1) instanceof CodeBlockElement block) {
+            out.set(out.size() - 1, block.withLines(line));
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isSeparator(CharSequence s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c != '-' && c != '*' && c != '_') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isListMarker(char c) {
+        return c == '-' || c == '*' || c == '+';
+    }
+
+    // 正则 \s 对应的字符：[ \t\n\x0B\f\r]
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    private static int skipWhitespace(CharSequence s, int from, int end) {
+        while (from < end && isWhitespace(s.charAt(from))) from++;
+        return from;
+    }
+
+    // 正则 . 不匹配的行终止符
+    private static boolean hasLineTerminator(CharSequence s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String trimmed(CharSequence s, int start, int end) {
+        while (start < end && s.charAt(start) <= ' ') start++;
+        while (end > start && s.charAt(end - 1) <= ' ') end--;
+        return s.subSequence(start, end).toString();
+    }
+
+    // 每4个空格（或1个制表符）算一级缩进
+    private static int getIndentLevel(CharSequence s, int start, int end) {
+        int indent = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == ' ') indent++;
+            else if (c == '\t') indent += 4;
+            else break;
+        }
+        return indent / 4;
+    }
+}
@@ -0,0 +1,289 @@
+package com.swx.mcompanion.client.gui;
+
+import com.swx.mcompanion.client.gui.AiChatScreen.ChatMessage;
+import com.swx.mcompanion.client.gui.AiChatScreen.FormattedContent;
+import com.swx.mcompanion.client.gui.AiChatScreen.MarkdownParser;
+import com.swx.mcompanion.client.metrics.ClientMetrics;
+import com.swx.mcompanion.client.metrics.JfrEvents;
+import com.swx.mcompanion.config.ClientConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 全客户端共享、按内存预算淘汰的消息缓存。
+ * 保存每条消息解析后的元素树和换行布局，按估算大小计入预算（见 {@link ClientConfig#getCacheBudgetMb()}），
+ * 超出预算时淘汰最久没有被访问的条目，被淘汰的内容下次使用时重新解析、重新布局。
+ * 不活跃会话的消息列表也可以登记进来，超出预算时整个会话被释放，之后从历史记录重新加载。
+ * 只在渲染线程上访问，不做同步。
+ */
+public final class MessageCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessageCache.class);
+    private static final MessageCache INSTANCE = new MessageCache();
+
+    // 按访问顺序排列，最久未访问的在最前面
+    private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long usedBytes = 0;
+
+    private long parseHits = 0;
+    private long parseMisses = 0;
+    private long layoutHits = 0;
+    private long layoutMisses = 0;
+    private long evictions = 0;
+    private long sessionsReleased = 0;
+
+    public static MessageCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * 取消息解析后的元素树，没有缓存时重新解析。
+     */
+    public FormattedContent getParsed(ChatMessage message) {
+        MessageEntry entry = messageEntry(message);
+        if (entry.parsed != null) {
+            parseHits++;
+            return entry.parsed;
+        }
+        parseMisses++;
+        FormattedContent parsed = MarkdownParser.parseMarkdown(message.getContent());
+        setParsed(message, entry, parsed);
+        return parsed;
+    }
+
+    // 流式回复结束时直接放入增量解析器的结果，省去一次完整解析
+    public void putParsed(ChatMessage message, FormattedContent parsed) {
+        setParsed(message, messageEntry(message), parsed);
+    }
+
+    /**
+     * 取消息在给定宽度和测量器下的布局，内容版本变化或没有缓存时重新布局。
+     */
+    public MessageLayout getLayout(ChatMessage message, TextMeasurer measurer, int width) {
+        MessageEntry entry = messageEntry(message);
+        MessageLayout layout = entry.layout;
+        if (layout != null && layout.matches(measurer, width, message.getVersion())) {
+            layoutHits++;
+            return layout;
+        }
+        layoutMisses++;
+        // 先取解析结果，解析的耗时不计入布局
+        message.getFormattedContent();
+        long start = System.nanoTime();
+        JfrEvents.MessageLayout event = new JfrEvents.MessageLayout();
+        event.begin();
+        layout = MessageLayout.build(message, measurer, width, layout);
+        ClientMetrics.LAYOUT.recordSince(start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.width = width;
+            event.elements = layout.size();
+            event.commit();
+        }
+        resize(message, entry, entry.parsedBytes, layout.estimateBytes(), entry.parsed, layout);
+        return layout;
+    }
+
+    // 丢弃不是当前宽度和字体的布局，解析结果保留
+    public void retainLayouts(TextMeasurer measurer, int width) {
+        for (Entry value : entries.values()) {
+            if (value instanceof MessageEntry entry && entry.layout != null
+                    && !entry.layout.matches(measurer, width, entry.layout.version)) {
+                usedBytes -= entry.layoutBytes;
+                entry.layout = null;
+                entry.layoutBytes = 0;
+            }
+        }
+    }
+
+    // 消息是否有缓存条目，不影响淘汰顺序
+    public boolean contains(ChatMessage message) {
+        return entries.containsKey(message);
+    }
+
+    // 消息内容被替换时丢弃它的解析结果和布局
+    public void invalidate(ChatMessage message) {
+        remove(message);
+    }
+
+    public void removeAll(Collection<ChatMessage> messages) {
+        for (ChatMessage message : messages) {
+            remove(message);
+        }
+    }
+
+    /**
+     * 登记一个不活跃会话的消息列表，超出预算时调用 releaser 释放整个会话。
+     * 会话重新变为活跃时应调用 {@link #untrackSession(Object)}。
+     */
+    public void trackSession(Object session, long estimatedBytes, Runnable releaser) {
+        Entry old = entries.put(session, new SessionEntry(estimatedBytes, releaser));
+        if (old != null) {
+            usedBytes -= old.bytes();
+        }
+        usedBytes += estimatedBytes;
+        enforceBudget(null);
+    }
+
+    public void untrackSession(Object session) {
+        Entry old = entries.remove(session);
+        if (old != null) {
+            usedBytes -= old.bytes();
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    public Stats getStats() {
+        return new Stats(usedBytes, budgetBytes(), entries.size(), parseHits, parseMisses,
+                layoutHits, layoutMisses, evictions, sessionsReleased);
+    }
+
+    private MessageEntry messageEntry(ChatMessage message) {
+        Entry entry = entries.get(message);
+        if (entry instanceof MessageEntry messageEntry) {
+            return messageEntry;
+        }
+        MessageEntry created = new MessageEntry();
+        entries.put(message, created);
+        return created;
+    }
+
+    private void setParsed(ChatMessage message, MessageEntry entry, FormattedContent parsed) {
+        resize(message, entry, estimateBytes(parsed), entry.layoutBytes, parsed, entry.layout);
+    }
+
+    private void resize(ChatMessage message, MessageEntry entry, long parsedBytes, long layoutBytes,
+                        FormattedContent parsed, MessageLayout layout) {
+        usedBytes += parsedBytes + layoutBytes - entry.parsedBytes - entry.layoutBytes;
+        entry.parsed = parsed;
+        entry.layout = layout;
+        entry.parsedBytes = parsedBytes;
+        entry.layoutBytes = layoutBytes;
+        enforceBudget(message);
+    }
+
+    private void remove(Object key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            usedBytes -= entry.bytes();
+        }
+    }
+
+    // 从最久未访问的条目开始淘汰，直到回到预算以内；正在使用的条目 inUse 总会保留
+    private void enforceBudget(Object inUse) {
+        long budget = budgetBytes();
+        if (usedBytes <= budget) {
+            return;
+        }
+        List<Runnable> releasers = new ArrayList<>();
+        Iterator<Map.Entry<Object, Entry>> iterator = entries.entrySet().iterator();
+        while (usedBytes > budget && iterator.hasNext()) {
+            Map.Entry<Object, Entry> next = iterator.next();
+            if (next.getKey() == inUse) {
+                continue;
+            }
+            Entry entry = next.getValue();
+            iterator.remove();
+            usedBytes -= entry.bytes();
+            evictions++;
+            if (entry instanceof SessionEntry session) {
+                sessionsReleased++;
+                releasers.add(session.releaser);
+            }
+        }
+        // 释放会话时会移除它的消息条目，放到遍历结束后执行
+        for (Runnable releaser : releasers) {
+            releaser.run();
+        }
+        // 淘汰可能每帧都发生，日志关闭时不装箱参数
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("消息缓存淘汰后占用 {} KB / {} KB", usedBytes / 1024, budget / 1024);
+        }
+    }
+
+    private static long budgetBytes() {
+        return ClientConfig.getCacheBudgetMb() * 1024L * 1024L;
+    }
+
+    private static long estimateBytes(FormattedContent content) {
+        long bytes = 64;
+        for (AiChatScreen.MarkdownElement element : content.elements) {
+            bytes += element.estimateBytes();
+        }
+        return bytes;
+    }
+
+    private interface Entry {
+        long bytes();
+    }
+
+    private static final class MessageEntry implements Entry {
+        FormattedContent parsed;
+        MessageLayout layout;
+        long parsedBytes;
+        long layoutBytes;
+
+        @Override
+        public long bytes() {
+            return parsedBytes + layoutBytes;
+        }
+    }
+
+    private static final class SessionEntry implements Entry {
+        final long estimatedBytes;
+        final Runnable releaser;
+
+        SessionEntry(long estimatedBytes, Runnable releaser) {
+            this.estimatedBytes = estimatedBytes;
+            this.releaser = releaser;
+        }
+
+        @Override
+        public long bytes() {
+            return estimatedBytes;
+        }
+    }
+
+    // 缓存统计快照
+    public static final class Stats {
+        public final long usedBytes;
+        public final long budgetBytes;
+        public final int entries;
+        public final long parseHits;
+        public final long parseMisses;
+        public final long layoutHits;
+        public final long layoutMisses;
+        public final long evictions;
+        public final long sessionsReleased;
+
+        Stats(long usedBytes, long budgetBytes, int entries, long parseHits, long parseMisses,
+              long layoutHits, long layoutMisses, long evictions, long sessionsReleased) {
+            this.usedBytes = usedBytes;
+            this.budgetBytes = budgetBytes;
+            this.entries = entries;
+            this.parseHits = parseHits;
+            this.parseMisses = parseMisses;
+            this.layoutHits = layoutHits;
+            this.layoutMisses = layoutMisses;
+            this.evictions = evictions;
+            this.sessionsReleased = sessionsReleased;
+        }
+
+        @Override
+        public String toString() {
+            return "used=" + usedBytes / 1024 + "KB/" + budgetBytes / 1024 + "KB, entries=" + entries
+                    + ", parse=" + parseHits + "/" + parseMisses + ", layout=" + layoutHits + "/" + layoutMisses
+                    + ", evictions=" + evictions + ", sessionsReleased=" + sessionsReleased;
+        }
+    }
+}
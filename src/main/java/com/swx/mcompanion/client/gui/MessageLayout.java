@@ -0,0 +1,83 @@
+package com.swx.mcompanion.client.gui;
+
+import com.swx.mcompanion.client.gui.AiChatScreen.ChatMessage;
+import com.swx.mcompanion.client.gui.AiChatScreen.ElementLayout;
+import com.swx.mcompanion.client.gui.AiChatScreen.MarkdownElement;
+import java.util.List;
+
+/**
+ * 一条消息在特定（内容版本, 宽度, 文本测量器）下的布局结果。
+ * 元素与其布局一一对应，渲染时直接使用，不再在元素上保存换行结果。
+ */
+public class MessageLayout {
+    // 消息框上下的基础padding
+    public static final int PADDING = 16;
+
+    public final int width;
+    public final int version;
+    public final int height;
+    private final TextMeasurer measurer;
+    private final MarkdownElement[] elements;
+    private final ElementLayout[] layouts;
+
+    private MessageLayout(TextMeasurer measurer, int width, int version, MarkdownElement[] elements, ElementLayout[] layouts, int height) {
+        this.measurer = measurer;
+        this.width = width;
+        this.version = version;
+        this.elements = elements;
+        this.layouts = layouts;
+        this.height = height;
+    }
+
+    /**
+     * 计算消息布局。宽度和测量器不变时，沿用 previous 中同一位置、同一元素实例的布局，
+     * 流式回复中已冻结的元素因此不会重新换行。
+     */
+    public static MessageLayout build(ChatMessage message, TextMeasurer measurer, int width, MessageLayout previous) {
+        List<MarkdownElement> source = message.getFormattedContent().elements;
+        int count = source.size();
+        MarkdownElement[] elements = new MarkdownElement[count];
+        ElementLayout[] layouts = new ElementLayout[count];
+        boolean reusable = previous != null && previous.measurer == measurer && previous.width == width;
+
+        int height = PADDING;
+        for (int i = 0; i < count; i++) {
+            MarkdownElement element = source.get(i);
+            ElementLayout layout;
+            if (reusable && i < previous.elements.length && previous.elements[i] == element) {
+                layout = previous.layouts[i];
+            } else {
+                layout = element.layout(measurer, width);
+            }
+            elements[i] = element;
+            layouts[i] = layout;
+            height += layout.height;
+        }
+        return new MessageLayout(measurer, width, message.getVersion(), elements, layouts, height);
+    }
+
+    public boolean matches(TextMeasurer measurer, int width, int version) {
+        return this.measurer == measurer && this.width == width && this.version == version;
+    }
+
+    public int size() {
+        return elements.length;
+    }
+
+    public MarkdownElement getElement(int index) {
+        return elements[index];
+    }
+
+    public ElementLayout getLayout(int index) {
+        return layouts[index];
+    }
+
+    // 估算占用的内存字节数，用于缓存预算
+    public long estimateBytes() {
+        long bytes = 64 + 8L * elements.length;
+        for (ElementLayout layout : layouts) {
+            bytes += layout.estimateBytes();
+        }
+        return bytes;
+    }
+}
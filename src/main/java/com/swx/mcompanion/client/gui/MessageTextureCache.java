@@ -0,0 +1,184 @@
+package com.swx.mcompanion.client.gui;
+
+import com.mojang.blaze3d.pipeline.TextureTarget;
+import com.mojang.blaze3d.systems.RenderSystem;
+import com.mojang.blaze3d.vertex.BufferBuilder;
+import com.mojang.blaze3d.vertex.BufferUploader;
+import com.mojang.blaze3d.vertex.DefaultVertexFormat;
+import com.mojang.blaze3d.vertex.Tesselator;
+import com.mojang.blaze3d.vertex.VertexFormat;
+import com.mojang.blaze3d.vertex.VertexSorting;
+import com.swx.mcompanion.client.gui.AiChatScreen.ChatMessage;
+import com.swx.mcompanion.config.ClientConfig;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.GuiGraphics;
+import net.minecraft.client.renderer.GameRenderer;
+import org.joml.Matrix4f;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * 已完成消息的离屏纹理缓存。内容不再变化的消息只绘制一次到离屏渲染目标，
+ * 之后每帧只贴一张纹理，不再逐个元素地填充背景、绘制文字和缩放标题。
+ * 纹理按像素计入显存预算，超出时淘汰最久没有绘制的；界面尺寸或缩放变化时全部丢弃。
+ * 只在渲染线程上使用。
+ */
+final class MessageTextureCache {
+    // 超过这个像素尺寸的消息不缓存，避免超出显卡的纹理尺寸上限
+    private static final int MAX_TEXTURE_SIZE = 4096;
+    // 每帧最多新绘制几条，打开长对话时把开销分摊到几帧里
+    private static final int MAX_BAKES_PER_FRAME = 4;
+    // 与游戏绘制界面时使用的投影一致
+    private static final float GUI_NEAR = 1000.0F;
+    private static final float GUI_FAR = 21000.0F;
+
+    private final Map<ChatMessage, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long usedPixels = 0;
+    private double guiScale = 0;
+    private long frame = 0;
+    private int bakedThisFrame = 0;
+
+    private static final class Entry {
+        TextureTarget target;
+        int version;
+        int width;
+        int height;
+        long pixels;
+        long lastFrame;
+    }
+
+    // 每帧开始时调用
+    void beginFrame() {
+        frame++;
+        bakedThisFrame = 0;
+        double scale = Minecraft.getInstance().getWindow().getGuiScale();
+        if (scale != guiScale) {
+            clear();
+            guiScale = scale;
+        }
+        if (!ClientConfig.isMessageTextureCache() && !entries.isEmpty()) {
+            clear();
+        }
+    }
+
+    /**
+     * 确保消息在当前尺寸下有可用的纹理，需要时调用 painter 以 (0, 0) 为消息左上角绘制一次。
+     * 会切换帧缓冲，必须在启用裁剪之前调用。
+     *
+     * @return 纹理可用时返回true；不缓存或预算不足时返回false，由调用方直接绘制
+     */
+    boolean prepare(ChatMessage message, int width, int height, Consumer<GuiGraphics> painter) {
+        if (!ClientConfig.isMessageTextureCache() || width <= 0 || height <= 0) {
+            return false;
+        }
+        Entry entry = entries.get(message);
+        if (entry != null && entry.version == message.getVersion() && entry.width == width && entry.height == height) {
+            entry.lastFrame = frame;
+            return true;
+        }
+        int pixelWidth = (int) Math.ceil(width * guiScale);
+        int pixelHeight = (int) Math.ceil(height * guiScale);
+        long pixels = (long) pixelWidth * pixelHeight;
+        if (pixelWidth > MAX_TEXTURE_SIZE || pixelHeight > MAX_TEXTURE_SIZE || bakedThisFrame >= MAX_BAKES_PER_FRAME) {
+            return false;
+        }
+
+        // 过期的纹理先移出，淘汰时不会误删它，预算够用时复用它的渲染目标
+        if (entry != null) {
+            entries.remove(message);
+            usedPixels -= entry.pixels;
+        }
+        if (!reserve(pixels)) {
+            if (entry != null) {
+                entry.target.destroyBuffers();
+            }
+            return false;
+        }
+        if (entry == null) {
+            entry = new Entry();
+            entry.target = new TextureTarget(pixelWidth, pixelHeight, false, Minecraft.ON_OSX);
+        } else if (entry.target.width != pixelWidth || entry.target.height != pixelHeight) {
+            entry.target.resize(pixelWidth, pixelHeight, Minecraft.ON_OSX);
+        }
+        entries.put(message, entry);
+        usedPixels += pixels;
+        entry.version = message.getVersion();
+        entry.width = width;
+        entry.height = height;
+        entry.pixels = pixels;
+        entry.lastFrame = frame;
+        bake(entry.target, width, height, painter);
+        bakedThisFrame++;
+        return true;
+    }
+
+    /**
+     * 把 prepare 过的消息贴到 (x, y)。
+     */
+    void draw(GuiGraphics guiGraphics, ChatMessage message, int x, int y) {
+        Entry entry = entries.get(message);
+        if (entry == null) {
+            return;
+        }
+        // 先提交之前批量的绘制，保持前后顺序
+        guiGraphics.flush();
+        RenderSystem.setShader(GameRenderer::getPositionTexShader);
+        RenderSystem.setShaderTexture(0, entry.target.getColorTextureId());
+        Matrix4f pose = guiGraphics.pose().last().pose();
+        BufferBuilder builder = Tesselator.getInstance().getBuilder();
+        builder.begin(VertexFormat.Mode.QUADS, DefaultVertexFormat.POSITION_TEX);
+        // 帧缓冲的原点在左下角，纹理坐标上下翻转
+        builder.vertex(pose, x, y, 0).uv(0, 1).endVertex();
+        builder.vertex(pose, x, y + entry.height, 0).uv(0, 0).endVertex();
+        builder.vertex(pose, x + entry.width, y + entry.height, 0).uv(1, 0).endVertex();
+        builder.vertex(pose, x + entry.width, y, 0).uv(1, 1).endVertex();
+        BufferUploader.drawWithShader(builder.end());
+    }
+
+    // 释放所有纹理，界面尺寸或缩放变化、界面关闭时调用
+    void clear() {
+        for (Entry entry : entries.values()) {
+            entry.target.destroyBuffers();
+        }
+        entries.clear();
+        usedPixels = 0;
+    }
+
+    // 淘汰这一帧没有用到的纹理，直到能再放下 pixels 个像素；这一帧可见的纹理已经占满预算时放弃
+    private boolean reserve(long pixels) {
+        long budget = ClientConfig.getTextureCacheBudgetMb() * 1024L * 1024L / 4;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (usedPixels + pixels > budget && iterator.hasNext()) {
+            Entry oldest = iterator.next();
+            if (oldest.lastFrame == frame) {
+                // 按访问顺序排列，之后的都是这一帧用到的
+                return false;
+            }
+            oldest.target.destroyBuffers();
+            usedPixels -= oldest.pixels;
+            iterator.remove();
+        }
+        return usedPixels + pixels <= budget;
+    }
+
+    private void bake(TextureTarget target, int width, int height, Consumer<GuiGraphics> painter) {
+        Minecraft minecraft = Minecraft.getInstance();
+        target.setClearColor(0, 0, 0, 0);
+        target.clear(Minecraft.ON_OSX);
+        target.bindWrite(true);
+        Matrix4f projection = RenderSystem.getProjectionMatrix();
+        VertexSorting sorting = RenderSystem.getVertexSorting();
+        RenderSystem.setProjectionMatrix(new Matrix4f().setOrtho(0, width, height, 0, GUI_NEAR, GUI_FAR),
+                VertexSorting.ORTHOGRAPHIC_Z);
+
+        GuiGraphics graphics = new GuiGraphics(minecraft, minecraft.renderBuffers().bufferSource());
+        painter.accept(graphics);
+        graphics.flush();
+
+        RenderSystem.setProjectionMatrix(projection, sorting);
+        minecraft.getMainRenderTarget().bindWrite(true);
+    }
+}
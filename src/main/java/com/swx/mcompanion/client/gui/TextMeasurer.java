@@ -0,0 +1,15 @@
+package com.swx.mcompanion.client.gui;
+
+import java.util.List;
+
+/**
+ * 与字体实现无关的文本测量接口。
+ * 布局只依赖这里的宽度测量和自动换行，因此可以脱离游戏客户端单独运行（例如基准测试）。
+ */
+public interface TextMeasurer {
+
+    int width(String text);
+
+    // 按最大宽度自动换行，返回每一行的文本
+    List<String> split(String text, int maxWidth);
+}
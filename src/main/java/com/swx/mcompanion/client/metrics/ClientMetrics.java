@@ -0,0 +1,38 @@
+package com.swx.mcompanion.client.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 客户端性能指标。各处直接往对应的直方图里记录，调试面板和指标日志读取快照。
+ * 时间类指标以纳秒记录，显示时换算成毫秒。
+ */
+public final class ClientMetrics {
+    // 从发出请求到收到第一段回复
+    public static final Histogram TTFT = new Histogram("ttft", "ms", 1_000_000);
+    // 每条回复从第一段到最后一段的输出速率
+    public static final Histogram TOKENS_PER_SECOND = new Histogram("tokensPerSecond", "tok/s", 1);
+    // Markdown解析（整条解析和流式增量解析）
+    public static final Histogram PARSE = new Histogram("parse", "ms", 1_000_000);
+    // 消息布局（换行和测量）
+    public static final Histogram LAYOUT = new Histogram("layout", "ms", 1_000_000);
+    // 聊天界面每帧的渲染耗时
+    public static final Histogram CHAT_FRAME = new Histogram("chatFrame", "ms", 1_000_000);
+
+    private static final List<Histogram> ALL = List.of(TTFT, TOKENS_PER_SECOND, PARSE, LAYOUT, CHAT_FRAME);
+
+    private ClientMetrics() {
+    }
+
+    public static List<Histogram> all() {
+        return ALL;
+    }
+
+    public static List<Histogram.Snapshot> snapshot() {
+        List<Histogram.Snapshot> snapshots = new ArrayList<>(ALL.size());
+        for (Histogram histogram : ALL) {
+            snapshots.add(histogram.snapshot());
+        }
+        return snapshots;
+    }
+}
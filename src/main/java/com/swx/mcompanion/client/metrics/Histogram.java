@@ -0,0 +1,149 @@
+package com.swx.mcompanion.client.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 低开销的对数分桶直方图，统计延迟、速率等非负整数。
+ * 每个2的幂区间再均分为16个子桶，百分位的相对误差约在6%以内；
+ * 记录只是几次原子加法，不分配内存，渲染线程和网络线程可以同时记录。
+ */
+public final class Histogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // 超过 2^41 的值计入最后一个桶（以纳秒计约为36分钟）
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKET_COUNT = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private final String name;
+    private final String unit;
+    // 显示时 记录值/divisor 得到以 unit 为单位的数值
+    private final double divisor;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public Histogram(String name, String unit, double divisor) {
+        this.name = name;
+        this.unit = unit;
+        this.divisor = divisor;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            return;
+        }
+        long clamped = Math.min(value, MAX_VALUE);
+        counts.incrementAndGet(bucketOf(clamped));
+        sum.addAndGet(clamped);
+        if (clamped > max.get()) {
+            max.accumulateAndGet(clamped, Math::max);
+        }
+    }
+
+    // 记录从 startNanos 到现在经过的纳秒数
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * 当前累计数据的快照。与并发的记录之间不加锁，快照内的各项可能相差几次记录。
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(this, copy, sum.get(), max.get());
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+    }
+
+    // 桶内数值范围的中点，用作百分位的估计值
+    static long bucketMidpoint(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        int sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        long lower = (long) (SUB_BUCKETS + sub) << shift;
+        return lower + ((1L << shift) >> 1);
+    }
+
+    /**
+     * 直方图在某一时刻的数据，可以相减得到一段时间窗口内的分布。
+     */
+    public static final class Snapshot {
+        public final Histogram histogram;
+        private final long[] counts;
+        public final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(Histogram histogram, long[] counts, long sum, long max) {
+            this.histogram = histogram;
+            this.counts = counts;
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            this.count = total;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * 百分位（0~100），以显示单位表示；没有数据时返回0。
+         */
+        public double percentile(double percent) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(count * percent / 100.0));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    // 估计值不超过实际记录到的最大值
+                    return Math.min(bucketMidpoint(i), max) / histogram.divisor;
+                }
+            }
+            return max / histogram.divisor;
+        }
+
+        public double mean() {
+            return count == 0 ? 0 : sum / (double) count / histogram.divisor;
+        }
+
+        // 最大值是累计的，时间窗口相减后仍取较新快照的最大值
+        public double max() {
+            return max / histogram.divisor;
+        }
+
+        // 从 earlier 到这个快照之间新增的记录
+        public Snapshot minus(Snapshot earlier) {
+            long[] delta = new long[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                delta[i] = counts[i] - earlier.counts[i];
+            }
+            return new Snapshot(histogram, delta, sum - earlier.sum, max);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.swx.mcompanion.client.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder 事件，在玩家机器上用 JFR 录制时把延迟归到具体的阶段。
+ * 没有录制时 begin/commit 都是空操作，调用处只在 shouldCommit() 为真时才填字段，热路径上没有额外开销。
+ * 录制方法：启动参数加 -XX:StartFlightRecording=filename=mcompanion.jfr，或用 jcmd 对运行中的游戏开始录制，
+ * 在 JDK Mission Control 中按 "MCompanion" 分类查看。
+ */
+public final class JfrEvents {
+
+    private JfrEvents() {
+    }
+
+    @Name("mcompanion.ChatRequest")
+    @Label("Chat Request")
+    @Category({"MCompanion", "Network"})
+    @Description("发出一次聊天请求（包括重试和续传）")
+    @StackTrace(false)
+    public static final class ChatRequest extends Event {
+        @Label("Method")
+        public String method;
+        @Label("URI")
+        public String uri;
+        @Label("Last Event ID")
+        @Description("续传时从这个事件ID之后继续，首次请求为空")
+        public String lastEventId;
+        @Label("Retries")
+        public int retries;
+    }
+
+    @Name("mcompanion.FirstByte")
+    @Label("First Byte")
+    @Category({"MCompanion", "Network"})
+    @Description("从发出请求到收到响应头")
+    @StackTrace(false)
+    public static final class FirstByte extends Event {
+        @Label("Status")
+        public int status;
+        @Label("Content Encoding")
+        public String contentEncoding;
+    }
+
+    @Name("mcompanion.SseBatch")
+    @Label("SSE Batch")
+    @Category({"MCompanion", "Network"})
+    @Description("解码一批收到的事件流数据并分发其中的事件")
+    @StackTrace(false)
+    public static final class SseBatch extends Event {
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+        @Label("Events")
+        public int events;
+    }
+
+    @Name("mcompanion.MarkdownParse")
+    @Label("Markdown Parse")
+    @Category({"MCompanion", "Rendering"})
+    @StackTrace(false)
+    public static final class MarkdownParse extends Event {
+        @Label("Characters")
+        public int chars;
+        @Label("Incremental")
+        @Description("流式回复的增量解析")
+        public boolean incremental;
+    }
+
+    @Name("mcompanion.MessageLayout")
+    @Label("Message Layout")
+    @Category({"MCompanion", "Rendering"})
+    @Description("一条消息的换行和测量")
+    @StackTrace(false)
+    public static final class MessageLayout extends Event {
+        @Label("Width")
+        public int width;
+        @Label("Elements")
+        public int elements;
+    }
+}
@@ -0,0 +1,42 @@
+package com.swx.mcompanion.client.metrics;
+
+/**
+ * 限制同一条日志的输出频率，用于可能每个事件、每一行都触发的日志。
+ * 每个时间窗口内最多放行 limit 次，其余只计数，下一次放行时告诉调用方中间省略了多少条。
+ * 调用方应先检查日志级别是否开启，关闭时连计数也不做。
+ */
+public final class LogSampler {
+    private final int limit;
+    private final long windowNanos;
+
+    private long windowStart;
+    private int emitted;
+    private long suppressed;
+
+    public LogSampler(int limit, long windowMillis) {
+        this.limit = limit;
+        this.windowNanos = windowMillis * 1_000_000;
+        this.windowStart = System.nanoTime() - windowNanos;
+    }
+
+    /**
+     * 申请输出一条日志。
+     *
+     * @return 允许输出时返回上次输出之后被省略的条数（可能为0），不允许时返回-1
+     */
+    public synchronized long tryAcquire() {
+        long now = System.nanoTime();
+        if (now - windowStart >= windowNanos) {
+            windowStart = now;
+            emitted = 0;
+        }
+        if (emitted >= limit) {
+            suppressed++;
+            return -1;
+        }
+        emitted++;
+        long skipped = suppressed;
+        suppressed = 0;
+        return skipped;
+    }
+}
@@ -0,0 +1,175 @@
+package com.swx.mcompanion.client.metrics;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.swx.mcompanion.client.network.ChatTransport;
+import com.swx.mcompanion.client.network.NetworkExecutor;
+import com.swx.mcompanion.config.ClientConfig;
+import net.minecraft.client.Minecraft;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把性能指标按时间窗口追加写入 logs/mcompanion-metrics.jsonl，每行一个JSON对象，
+ * 包含这个窗口内新增记录的分布以及版本、Java和系统信息，便于汇总比较不同版本在玩家机器上的表现。
+ * 文件超过大小上限时滚动，最多保留3个旧文件。默认关闭，在配置中打开 metricsLog。
+ */
+public final class MetricsLog {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricsLog.class);
+    private static final Gson GSON = new Gson();
+    private static final String FILE_NAME = "mcompanion-metrics";
+    private static final long MAX_FILE_BYTES = 4L * 1024 * 1024;
+    private static final int MAX_ARCHIVES = 3;
+    // 同一次游戏运行写出的行带相同的ID
+    private static final String RUN_ID = UUID.randomUUID().toString().substring(0, 8);
+    private static final String BUILD = buildVersion();
+
+    // 以下字段只在客户端主线程上访问
+    private static List<Histogram.Snapshot> lastWritten;
+    private static long windowStart = System.nanoTime();
+    private static Path logDir;
+
+    private MetricsLog() {
+    }
+
+    /**
+     * 每个客户端tick调用一次，窗口结束时在后台线程写入一行。
+     */
+    public static void tick() {
+        if (!ClientConfig.isMetricsLog()) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (now - windowStart < TimeUnit.SECONDS.toNanos(ClientConfig.getMetricsLogIntervalSeconds())) {
+            return;
+        }
+        String line = takeWindow(now);
+        if (line != null) {
+            Path dir = getLogDir();
+            try {
+                NetworkExecutor.get().execute(() -> append(dir, line));
+            } catch (RejectedExecutionException e) {
+                // 在渲染线程上调用，线程池已满时丢掉这一行，不能让异常打断游戏
+                LOGGER.debug("网络线程池已满，跳过一行性能指标");
+            }
+        }
+    }
+
+    /**
+     * 游戏退出时在当前线程写出最后一个窗口。
+     */
+    public static void shutdown() {
+        if (!ClientConfig.isMetricsLog()) {
+            return;
+        }
+        String line = takeWindow(System.nanoTime());
+        if (line != null) {
+            append(getLogDir(), line);
+        }
+    }
+
+    // 取出上次写入之后新增的记录，没有任何新记录时返回null
+    private static String takeWindow(long now) {
+        List<Histogram.Snapshot> current = ClientMetrics.snapshot();
+        List<Histogram.Snapshot> previous = lastWritten;
+        double windowSeconds = (now - windowStart) / 1e9;
+        lastWritten = current;
+        windowStart = now;
+
+        JsonObject metrics = new JsonObject();
+        boolean empty = true;
+        for (int i = 0; i < current.size(); i++) {
+            Histogram.Snapshot window = previous != null ? current.get(i).minus(previous.get(i)) : current.get(i);
+            if (window.count == 0) {
+                continue;
+            }
+            empty = false;
+            JsonObject entry = new JsonObject();
+            entry.addProperty("unit", window.histogram.getUnit());
+            entry.addProperty("count", window.count);
+            entry.addProperty("p50", round(window.percentile(50)));
+            entry.addProperty("p95", round(window.percentile(95)));
+            entry.addProperty("p99", round(window.percentile(99)));
+            entry.addProperty("mean", round(window.mean()));
+            entry.addProperty("max", round(window.max()));
+            metrics.add(window.histogram.getName(), entry);
+        }
+        if (empty) {
+            return null;
+        }
+
+        ChatTransport.Metrics transport = ChatTransport.getMetrics();
+        JsonObject network = new JsonObject();
+        network.addProperty("retries", transport.retries);
+        network.addProperty("resumes", transport.resumes);
+        network.addProperty("idleTimeouts", transport.idleTimeouts);
+        network.addProperty("circuitOpens", transport.circuitOpens);
+        network.addProperty("warmUpMs", transport.warmUpMs);
+        network.addProperty("firstMessageTtftMs", transport.firstMessageTtftMs);
+
+        JsonObject line = new JsonObject();
+        line.addProperty("time", Instant.now().toString());
+        line.addProperty("run", RUN_ID);
+        line.addProperty("build", BUILD);
+        line.addProperty("java", System.getProperty("java.version"));
+        line.addProperty("os", System.getProperty("os.name"));
+        line.addProperty("windowSeconds", round(windowSeconds));
+        line.add("metrics", metrics);
+        line.add("network", network);
+        return GSON.toJson(line);
+    }
+
+    private static synchronized void append(Path dir, String line) {
+        try {
+            Files.createDirectories(dir);
+            Path file = dir.resolve(FILE_NAME + ".jsonl");
+            byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+            if (Files.exists(file) && Files.size(file) + bytes.length > MAX_FILE_BYTES) {
+                roll(dir, file);
+            }
+            Files.write(file, bytes, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            LOGGER.warn("写入性能指标失败: {}", e.toString());
+        }
+    }
+
+    // mcompanion-metrics.jsonl -> .1.jsonl -> .2.jsonl -> .3.jsonl，最旧的被覆盖
+    private static void roll(Path dir, Path file) throws IOException {
+        for (int i = MAX_ARCHIVES - 1; i >= 1; i--) {
+            Path source = dir.resolve(FILE_NAME + "." + i + ".jsonl");
+            if (Files.exists(source)) {
+                Files.move(source, dir.resolve(FILE_NAME + "." + (i + 1) + ".jsonl"), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(file, dir.resolve(FILE_NAME + ".1.jsonl"), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static Path getLogDir() {
+        if (logDir == null) {
+            logDir = Minecraft.getInstance().gameDirectory.toPath().resolve("logs");
+        }
+        return logDir;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+
+    // 打包后的jar清单里有版本号，开发环境中没有
+    private static String buildVersion() {
+        String version = MetricsLog.class.getPackage().getImplementationVersion();
+        return version != null ? version : "dev";
+    }
+}
@@ -0,0 +1,125 @@
+package com.swx.mcompanion.client.metrics;
+
+import com.swx.mcompanion.client.gui.AiChatScreen;
+import com.swx.mcompanion.client.network.ChatTransport;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.Font;
+import net.minecraft.client.gui.GuiGraphics;
+import net.minecraftforge.client.gui.overlay.ForgeGui;
+import net.minecraftforge.client.gui.overlay.IGuiOverlay;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 性能指标调试面板，按快捷键开关，显示在屏幕右上角。
+ * 游戏内作为HUD叠加层绘制；聊天界面打开时由界面在最上层绘制，避免被界面背景遮住。
+ * 表格内容每半秒刷新一次，其余帧只绘制缓存的文字。只在客户端主线程上调用。
+ */
+public final class MetricsOverlay implements IGuiOverlay {
+    public static final MetricsOverlay INSTANCE = new MetricsOverlay();
+    private static final long REFRESH_NANOS = 500_000_000L;
+    private static final String[] HEADER = {"MCompanion", "n", "p50", "p95", "p99", "max", ""};
+    private static final int PADDING = 4;
+    private static final int COLUMN_GAP = 8;
+
+    private static boolean visible = false;
+    private static List<String[]> rows = new ArrayList<>();
+    private static String networkLine = "";
+    private static long refreshedAt;
+
+    private MetricsOverlay() {
+    }
+
+    public static void toggle() {
+        visible = !visible;
+        refreshedAt = 0;
+    }
+
+    public static boolean isVisible() {
+        return visible;
+    }
+
+    @Override
+    public void render(ForgeGui gui, GuiGraphics guiGraphics, float partialTick, int screenWidth, int screenHeight) {
+        if (visible && !(Minecraft.getInstance().screen instanceof AiChatScreen)) {
+            renderPanel(guiGraphics, gui.getFont(), screenWidth);
+        }
+    }
+
+    public static void renderPanel(GuiGraphics guiGraphics, Font font, int screenWidth) {
+        if (!visible) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (refreshedAt == 0 || now - refreshedAt >= REFRESH_NANOS) {
+            refresh();
+            refreshedAt = now;
+        }
+
+        // 各列按最宽的单元格对齐，数字列右对齐
+        int[] columnWidths = new int[HEADER.length];
+        for (String[] row : rows) {
+            for (int c = 0; c < row.length; c++) {
+                columnWidths[c] = Math.max(columnWidths[c], font.width(row[c]));
+            }
+        }
+        int tableWidth = -COLUMN_GAP;
+        for (int width : columnWidths) {
+            tableWidth += width + COLUMN_GAP;
+        }
+        int panelWidth = Math.max(tableWidth, font.width(networkLine)) + 2 * PADDING;
+        int lineHeight = font.lineHeight + 2;
+        int panelHeight = (rows.size() + 1) * lineHeight + 2 * PADDING;
+        int left = screenWidth - panelWidth - PADDING;
+        int top = PADDING;
+        guiGraphics.fill(left, top, left + panelWidth, top + panelHeight, 0xC0101010);
+
+        int y = top + PADDING;
+        for (int r = 0; r < rows.size(); r++) {
+            String[] row = rows.get(r);
+            int color = r == 0 ? 0xFFFFCC66 : 0xFFE0E0E0;
+            int x = left + PADDING;
+            for (int c = 0; c < row.length; c++) {
+                boolean numeric = c > 0 && c < row.length - 1;
+                int textX = numeric ? x + columnWidths[c] - font.width(row[c]) : x;
+                guiGraphics.drawString(font, row[c], textX, y, color, false);
+                x += columnWidths[c] + COLUMN_GAP;
+            }
+            y += lineHeight;
+        }
+        guiGraphics.drawString(font, networkLine, left + PADDING, y, 0xFFAAAAAA, false);
+    }
+
+    private static void refresh() {
+        List<String[]> table = new ArrayList<>();
+        table.add(HEADER);
+        for (Histogram.Snapshot snapshot : ClientMetrics.snapshot()) {
+            table.add(new String[]{
+                    snapshot.histogram.getName(),
+                    Long.toString(snapshot.count),
+                    format(snapshot.percentile(50)),
+                    format(snapshot.percentile(95)),
+                    format(snapshot.percentile(99)),
+                    format(snapshot.max()),
+                    snapshot.histogram.getUnit()
+            });
+        }
+        rows = table;
+        ChatTransport.Metrics network = ChatTransport.getMetrics();
+        networkLine = "重试 " + network.retries + "  续传 " + network.resumes + "  超时 " + network.idleTimeouts
+                + "  熔断 " + network.circuitState;
+    }
+
+    // 小数值保留更多位数
+    private static String format(double value) {
+        if (value < 10) {
+            return String.format(Locale.ROOT, "%.2f", value);
+        }
+        if (value < 100) {
+            return String.format(Locale.ROOT, "%.1f", value);
+        }
+        return String.format(Locale.ROOT, "%.0f", value);
+    }
+}
@@ -0,0 +1,77 @@
+package com.swx.mcompanion.client.network;
+
+import com.swx.mcompanion.client.metrics.LogSampler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.function.Supplier;
+
+/**
+ * 把聊天接口的SSE事件转换成回复增量：每个 message 事件的数据是一段增量，并累计全文。
+ * 服务端约定数据为空的事件表示一个换行，数据为 [DONE] 的事件表示结束标记。
+ */
+final class ChatEventHandler implements SseDecoder.Handler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChatEventHandler.class);
+    // 服务端可能频繁发送保活之类的其他事件，每秒最多记录5条
+    private static final LogSampler IGNORED_EVENT_LOG = new LogSampler(5, 1000);
+
+    private final StreamListener listener;
+    private final MessageBuffer fullMessage = new MessageBuffer();
+    private long sequence = 0;
+    // 收到了表示回复结束的 [DONE]
+    private boolean done = false;
+
+    ChatEventHandler(StreamListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void onEvent(SseDecoder.Event event) {
+        if (!event.type.equals("message")) {
+            if (LOGGER.isDebugEnabled()) {
+                long skipped = IGNORED_EVENT_LOG.tryAcquire();
+                if (skipped >= 0) {
+                    LOGGER.debug("忽略SSE事件: {}（之前省略 {} 条）", event.type, skipped);
+                }
+            }
+            return;
+        }
+        String data = event.data;
+        if (data.equals("[DONE]")) {
+            done = true;
+            return;
+        }
+        String delta = data.isEmpty() ? "\n" : data;
+        fullMessage.append(delta);
+        // 只下发增量，需要全文的调用方自行取快照
+        listener.onDelta(delta, sequence++, fullMessage);
+    }
+
+    boolean isDone() {
+        return done;
+    }
+
+    String getFullMessage() {
+        return fullMessage.get();
+    }
+
+    // 累计全文缓冲，快照在两次追加之间只生成一次。
+    // 流式事件队列会在渲染线程上取快照，所以读写都加锁（几乎没有竞争）
+    private static final class MessageBuffer implements Supplier<String> {
+        private final StringBuilder builder = new StringBuilder();
+        private String snapshot = "";
+
+        synchronized void append(String delta) {
+            builder.append(delta);
+            snapshot = null;
+        }
+
+        @Override
+        public synchronized String get() {
+            if (snapshot == null) {
+                snapshot = builder.toString();
+            }
+            return snapshot;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.swx.mcompanion.client.network;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * 一次进行中的聊天请求。
+ * {@link #cancel()} 会立即断开连接（取消响应体订阅并中止请求），
+ * 之后监听器不会再收到任何回调，包括 onComplete 和 onError。
+ */
+public final class ChatRequest {
+    private final StreamListener listener;
+    private final AtomicBoolean terminated = new AtomicBoolean();
+    private volatile boolean cancelled = false;
+    private volatile CompletableFuture<?> future;
+    private volatile Flow.Subscription subscription;
+    private volatile Runnable onTerminated = () -> {};
+
+    // 交给解码器的监听器，请求结束或取消后不再转发任何回调
+    private final StreamListener guarded = new StreamListener() {
+        @Override
+        public void onDelta(String delta, long sequence, Supplier<String> snapshot) {
+            if (!terminated.get()) {
+                listener.onDelta(delta, sequence, snapshot);
+            }
+        }
+
+        @Override
+        public void onComplete(String fullMessage) {
+            if (terminated.compareAndSet(false, true)) {
+                onTerminated.run();
+                listener.onComplete(fullMessage);
+            }
+        }
+
+        @Override
+        public void onError(String error) {
+            if (terminated.compareAndSet(false, true)) {
+                onTerminated.run();
+                listener.onError(error);
+            }
+        }
+
+        @Override
+        public void onStatus(String status) {
+            if (!terminated.get()) {
+                listener.onStatus(status);
+            }
+        }
+    };
+
+    ChatRequest(StreamListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 取消请求。已经结束的请求调用无效果，可以安全地重复调用。
+     *
+     * @return 本次调用是否真正取消了一个进行中的请求
+     */
+    public boolean cancel() {
+        if (!terminated.compareAndSet(false, true)) {
+            return false;
+        }
+        cancelled = true;
+        Flow.Subscription current = subscription;
+        if (current != null) {
+            current.cancel();
+        }
+        CompletableFuture<?> pending = future;
+        if (pending != null) {
+            pending.cancel(true);
+        }
+        onTerminated.run();
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // 请求是否已经结束（完成、出错或被取消）
+    public boolean isDone() {
+        return terminated.get();
+    }
+
+    boolean isActive() {
+        return !terminated.get();
+    }
+
+    void attach(CompletableFuture<?> future) {
+        this.future = future;
+        if (cancelled) {
+            future.cancel(true);
+        }
+    }
+
+    void attach(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        if (cancelled) {
+            subscription.cancel();
+        }
+    }
+
+    void onTerminated(Runnable onTerminated) {
+        this.onTerminated = onTerminated;
+    }
+
+    StreamListener guardedListener() {
+        return guarded;
+    }
+
+    void fail(String error) {
+        guarded.onError(error);
+    }
+}
@@ -0,0 +1,255 @@
+package com.swx.mcompanion.client.network;
+
+import com.swx.mcompanion.client.metrics.ClientMetrics;
+import com.swx.mcompanion.config.ClientConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 全局共享的HTTP传输层。
+ * 基于 {@link HttpClient}，连接在请求之间复用，服务端支持时使用HTTP/2多路复用，
+ * 省去每条消息重新建立TCP连接和TLS握手的开销。游戏退出时调用 {@link #shutdown()} 释放。
+ * 客户端初始化时可以调用 {@link #warmUp()} 提前解析域名并建立连接，第一条消息就不用再等握手。
+ */
+public final class ChatTransport {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChatTransport.class);
+    private static final Duration WARM_UP_TIMEOUT = Duration.ofSeconds(10);
+    // 连续失败5次熔断，冷却15秒，试探失败后加倍，最长2分钟
+    private static final CircuitBreaker circuit = new CircuitBreaker(5, 15_000, 120_000);
+    private static ChatTransport instance;
+
+    // 解析好的聊天地址，配置变化时丢弃
+    private static volatile URI chatUri;
+    // 上次配置中的聊天地址，只有它变化时才重置熔断
+    private static String configuredChatUrl;
+
+    // 预热和首字延迟指标
+    private static final AtomicBoolean warmUpStarted = new AtomicBoolean();
+    private static volatile long warmUpNanos = -1;
+    private static final AtomicBoolean firstMessageRecorded = new AtomicBoolean();
+    private static volatile long firstMessageTtftNanos = -1;
+    private static volatile boolean firstMessageWarmed;
+    private static volatile long lastTtftNanos = -1;
+    private static final AtomicLong ttftSamples = new AtomicLong();
+
+    // 连接可靠性指标
+    private static final AtomicLong retries = new AtomicLong();
+    private static final AtomicLong resumes = new AtomicLong();
+    private static final AtomicLong idleTimeouts = new AtomicLong();
+    private static final AtomicLong circuitOpens = new AtomicLong();
+    private static final AtomicLong circuitRejections = new AtomicLong();
+
+    static {
+        configuredChatUrl = ClientConfig.getFullChatUrl();
+        ClientConfig.addListener(ChatTransport::onConfigChanged);
+    }
+
+    private final HttpClient httpClient;
+    // 创建客户端时使用的配置，这两项变化后需要重建客户端
+    private final boolean preferHttp2;
+    private final int connectTimeoutSeconds;
+
+    private ChatTransport() {
+        this.preferHttp2 = ClientConfig.isPreferHttp2();
+        this.connectTimeoutSeconds = ClientConfig.getConnectTimeoutSeconds();
+        // 回调和响应体处理都在模组自己的网络线程池上执行
+        this.httpClient = HttpClient.newBuilder()
+                .version(preferHttp2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(connectTimeoutSeconds))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(NetworkExecutor.get())
+                .build();
+    }
+
+    public static synchronized ChatTransport get() {
+        if (instance == null) {
+            instance = new ChatTransport();
+            LOGGER.debug("创建HTTP传输层");
+        }
+        return instance;
+    }
+
+    // 服务器地址或接口路径变化时重新解析地址并重置熔断（旧服务器的失败不代表新服务器），
+    // HTTP版本或连接超时变化时丢弃客户端，下一个请求按新配置创建；进行中的请求继续使用旧客户端直到结束
+    private static synchronized void onConfigChanged() {
+        String url = ClientConfig.getFullChatUrl();
+        if (!url.equals(configuredChatUrl)) {
+            configuredChatUrl = url;
+            chatUri = null;
+            circuit.reset();
+        }
+        if (instance != null && (instance.preferHttp2 != ClientConfig.isPreferHttp2()
+                || instance.connectTimeoutSeconds != ClientConfig.getConnectTimeoutSeconds())) {
+            instance = null;
+            LOGGER.info("连接配置已变化，下一个请求将重新创建HTTP客户端");
+        }
+    }
+
+    /**
+     * 聊天接口的地址，解析一次后缓存，直到配置变化。
+     */
+    public static URI getChatUri() {
+        URI uri = chatUri;
+        if (uri == null) {
+            uri = URI.create(ClientConfig.getFullChatUrl());
+            chatUri = uri;
+            LOGGER.debug("聊天接口地址: {}", uri);
+        }
+        return uri;
+    }
+
+    /**
+     * 在网络线程上提前解析服务器域名，并发一个OPTIONS请求建立连接放入连接池。
+     * 只执行一次，失败不影响之后的正常请求。
+     */
+    public static void warmUp() {
+        if (!ClientConfig.isWarmUpConnection() || !warmUpStarted.compareAndSet(false, true)) {
+            return;
+        }
+        ChatTransport transport = get();
+        NetworkExecutor.get().execute(() -> {
+            long start = System.nanoTime();
+            try {
+                URI serverUri = URI.create(ClientConfig.getServerUrl());
+                if (serverUri.getHost() != null) {
+                    InetAddress.getAllByName(serverUri.getHost());
+                }
+                // HEAD请求的连接不会放回连接池，这里用OPTIONS
+                HttpRequest request = HttpRequest.newBuilder(serverUri)
+                        .method("OPTIONS", HttpRequest.BodyPublishers.noBody())
+                        .timeout(WARM_UP_TIMEOUT)
+                        .build();
+                // 响应状态无所谓，只要连接建立起来
+                transport.send(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, throwable) -> {
+                    if (throwable != null) {
+                        LOGGER.warn("连接预热失败: {}", throwable.toString());
+                        return;
+                    }
+                    warmUpNanos = System.nanoTime() - start;
+                    LOGGER.info("连接预热完成，用时 {} ms", warmUpNanos / 1_000_000);
+                });
+            } catch (Exception e) {
+                LOGGER.warn("连接预热失败: {}", e.toString());
+            }
+        });
+    }
+
+    // 是否已经有预热好的连接
+    static boolean isWarm() {
+        return warmUpNanos >= 0;
+    }
+
+    // 记录从发出请求到收到第一段回复的时间，启动后的第一条消息单独记录并注明是否预热过
+    static void recordTtft(long nanos, boolean warmed) {
+        lastTtftNanos = nanos;
+        ClientMetrics.TTFT.record(nanos);
+        ttftSamples.incrementAndGet();
+        if (firstMessageRecorded.compareAndSet(false, true)) {
+            firstMessageTtftNanos = nanos;
+            firstMessageWarmed = warmed;
+            LOGGER.info("启动后第一条消息的首字延迟 {} ms（{}预热）", nanos / 1_000_000, warmed ? "已" : "未");
+        }
+    }
+
+    static CircuitBreaker circuit() {
+        return circuit;
+    }
+
+    static void recordRetry() {
+        retries.incrementAndGet();
+    }
+
+    static void recordResume() {
+        resumes.incrementAndGet();
+    }
+
+    static void recordIdleTimeout() {
+        idleTimeouts.incrementAndGet();
+    }
+
+    static void recordCircuitOpen() {
+        circuitOpens.incrementAndGet();
+    }
+
+    static void recordCircuitRejection() {
+        circuitRejections.incrementAndGet();
+    }
+
+    public static Metrics getMetrics() {
+        return new Metrics(warmUpNanos, firstMessageTtftNanos, firstMessageWarmed, lastTtftNanos, ttftSamples.get(),
+                retries.get(), resumes.get(), idleTimeouts.get(), circuitOpens.get(), circuitRejections.get(),
+                circuit.getState().name());
+    }
+
+    public <T> CompletableFuture<HttpResponse<T>> send(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler) {
+        return httpClient.sendAsync(request, bodyHandler);
+    }
+
+    /**
+     * 关闭传输层：停止网络线程池，进行中的请求随之中断。之后再调用 {@link #get()} 会重新创建。
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance = null;
+            LOGGER.info("HTTP传输层已关闭: {}", getMetrics());
+        }
+        NetworkExecutor.shutdown();
+    }
+
+    // 连接预热、首字延迟和连接可靠性指标快照，时间单位为毫秒，-1表示还没有数据
+    public static final class Metrics {
+        public final long warmUpMs;
+        public final long firstMessageTtftMs;
+        public final boolean firstMessageWarmed;
+        public final long lastTtftMs;
+        public final long ttftSamples;
+        // 发送失败后的重试次数
+        public final long retries;
+        // 事件流中断后续传的次数
+        public final long resumes;
+        // 服务器长时间没有数据而中止的次数
+        public final long idleTimeouts;
+        // 熔断器打开的次数，以及熔断期间直接失败的请求数
+        public final long circuitOpens;
+        public final long circuitRejections;
+        public final String circuitState;
+
+        Metrics(long warmUpNanos, long firstMessageTtftNanos, boolean firstMessageWarmed, long lastTtftNanos,
+                long ttftSamples, long retries, long resumes, long idleTimeouts, long circuitOpens,
+                long circuitRejections, String circuitState) {
+            this.warmUpMs = toMillis(warmUpNanos);
+            this.firstMessageTtftMs = toMillis(firstMessageTtftNanos);
+            this.firstMessageWarmed = firstMessageWarmed;
+            this.lastTtftMs = toMillis(lastTtftNanos);
+            this.ttftSamples = ttftSamples;
+            this.retries = retries;
+            this.resumes = resumes;
+            this.idleTimeouts = idleTimeouts;
+            this.circuitOpens = circuitOpens;
+            this.circuitRejections = circuitRejections;
+            this.circuitState = circuitState;
+        }
+
+        private static long toMillis(long nanos) {
+            return nanos < 0 ? -1 : nanos / 1_000_000;
+        }
+
+        @Override
+        public String toString() {
+            return "warmUp=" + warmUpMs + "ms, firstTtft=" + firstMessageTtftMs + "ms(warmed=" + firstMessageWarmed
+                    + "), lastTtft=" + lastTtftMs + "ms, samples=" + ttftSamples + ", retries=" + retries
+                    + ", resumes=" + resumes + ", idleTimeouts=" + idleTimeouts + ", circuitOpens=" + circuitOpens
+                    + ", circuitRejections=" + circuitRejections + ", circuit=" + circuitState;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.swx.mcompanion.client.network;
+
+/**
+ * 聊天接口的熔断器，所有会话共用一个。
+ * 连续失败达到阈值后进入打开状态，冷却期内的请求直接失败，不再每次都等到连接超时；
+ * 冷却结束后只放行一个试探请求，成功则恢复，失败则重新打开并加倍冷却时间。
+ */
+final class CircuitBreaker {
+
+    enum State {
+        // 正常
+        CLOSED,
+        // 冷却中，请求直接失败
+        OPEN,
+        // 冷却结束，等待试探请求的结果
+        HALF_OPEN
+    }
+
+    enum Permit {
+        DENIED,
+        GRANTED,
+        // 冷却结束后的试探请求
+        PROBE
+    }
+
+    private final int failureThreshold;
+    private final long baseCooldownNanos;
+    private final long maxCooldownNanos;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAt;
+    private long cooldownNanos;
+    private boolean probeInFlight = false;
+
+    CircuitBreaker(int failureThreshold, long baseCooldownMillis, long maxCooldownMillis) {
+        this.failureThreshold = failureThreshold;
+        this.baseCooldownNanos = baseCooldownMillis * 1_000_000;
+        this.maxCooldownNanos = maxCooldownMillis * 1_000_000;
+        this.cooldownNanos = baseCooldownNanos;
+    }
+
+    /**
+     * 申请发送一个请求。打开状态下拒绝；冷却结束后只放行一个试探请求，结果报告之前其余请求仍被拒绝。
+     */
+    synchronized Permit tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return Permit.GRANTED;
+            case OPEN:
+                if (System.nanoTime() - openedAt < cooldownNanos) {
+                    return Permit.DENIED;
+                }
+                state = State.HALF_OPEN;
+                probeInFlight = true;
+                return Permit.PROBE;
+            default:
+                if (probeInFlight) {
+                    return Permit.DENIED;
+                }
+                probeInFlight = true;
+                return Permit.PROBE;
+        }
+    }
+
+    // 试探请求在报告结果之前被取消，让出试探的机会
+    synchronized void release() {
+        if (state == State.HALF_OPEN) {
+            probeInFlight = false;
+        }
+    }
+
+    synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        cooldownNanos = baseCooldownNanos;
+        probeInFlight = false;
+    }
+
+    /**
+     * 记录一次失败。
+     *
+     * @return 这次失败是否使熔断器进入打开状态
+     */
+    synchronized boolean onFailure() {
+        if (state == State.OPEN) {
+            return false;
+        }
+        if (state == State.HALF_OPEN) {
+            // 试探失败，冷却时间加倍
+            cooldownNanos = Math.min(maxCooldownNanos, cooldownNanos * 2);
+            open();
+            return true;
+        }
+        if (++consecutiveFailures >= failureThreshold) {
+            open();
+            return true;
+        }
+        return false;
+    }
+
+    // 配置变化（例如换了服务器地址）后重新开始
+    synchronized void reset() {
+        onSuccess();
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    // 距离允许试探还有多久，不在打开状态时为0
+    synchronized long getRemainingMillis() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, (cooldownNanos - (System.nanoTime() - openedAt)) / 1_000_000);
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        probeInFlight = false;
+    }
+}
@@ -0,0 +1,298 @@
+package com.swx.mcompanion.client.network;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * 按 Content-Encoding（gzip 或 deflate）边收边解压响应体，再交给下游的订阅者。
+ * 每收到一块数据就把能解出的内容全部交出去，服务端每次刷新压缩流后，
+ * 对应的token马上就能到达界面，而不是等整个响应结束。
+ * 上游的每一批数据对应下游的一批（可能为空），请求数量直接透传。
+ */
+final class InflatingSubscriber<T> implements HttpResponse.BodySubscriber<T> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(InflatingSubscriber.class);
+    private static final int OUTPUT_CHUNK = 8192;
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final HttpResponse.BodySubscriber<T> downstream;
+    private final boolean gzip;
+    // deflate 编码在第一块数据到达后才能判断是zlib格式还是裸deflate
+    private Inflater inflater;
+    private final CRC32 crc = new CRC32();
+    // 解压用的缓冲区，反复使用；交给下游的是按实际解出长度复制的新缓冲区
+    private final ByteBuffer scratch = ByteBuffer.allocate(OUTPUT_CHUNK);
+    // 还没凑齐的gzip头部或尾部
+    private byte[] pending = new byte[0];
+    private boolean inTrailer;
+    private boolean finished;
+    private Flow.Subscription subscription;
+
+    private InflatingSubscriber(HttpResponse.BodySubscriber<T> downstream, boolean gzip) {
+        this.downstream = downstream;
+        this.gzip = gzip;
+    }
+
+    /**
+     * 按响应头选择解码方式，未压缩时直接返回原订阅者。
+     */
+    static <T> HttpResponse.BodySubscriber<T> wrap(HttpResponse.ResponseInfo responseInfo,
+                                                   HttpResponse.BodySubscriber<T> downstream) {
+        String encoding = responseInfo.headers().firstValue("Content-Encoding").orElse("")
+                .trim().toLowerCase(Locale.ROOT);
+        switch (encoding) {
+            case "gzip":
+            case "x-gzip":
+                return new InflatingSubscriber<>(downstream, true);
+            case "deflate":
+                return new InflatingSubscriber<>(downstream, false);
+            default:
+                return downstream;
+        }
+    }
+
+    @Override
+    public CompletionStage<T> getBody() {
+        return downstream.getBody();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        downstream.onSubscribe(subscription);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> items) {
+        List<ByteBuffer> output = new ArrayList<>(items.size());
+        try {
+            for (ByteBuffer item : items) {
+                decode(item, output);
+            }
+        } catch (IOException | DataFormatException e) {
+            subscription.cancel();
+            end();
+            downstream.onError(e instanceof IOException ? e : new IOException("响应解压失败: " + e.getMessage(), e));
+            return;
+        }
+        downstream.onNext(output);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        end();
+        downstream.onError(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        if (!finished) {
+            // 连接提前结束，已解出的内容都已交出，是否算完整交给上层判断
+            LOGGER.warn("压缩的响应体不完整");
+        }
+        end();
+        downstream.onComplete();
+    }
+
+    private void decode(ByteBuffer input, List<ByteBuffer> output) throws IOException, DataFormatException {
+        while (input.hasRemaining()) {
+            if (finished) {
+                if (!gzip) {
+                    input.position(input.limit()); // deflate流结束后的多余字节
+                    return;
+                }
+                // 连续的下一个gzip成员
+                finished = false;
+                crc.reset();
+            }
+            if (inflater == null) {
+                ByteBuffer prefix = startMember(input);
+                if (prefix == null) {
+                    return; // 头部还没收全
+                }
+                inflate(prefix, output);
+                continue;
+            }
+            if (inTrailer) {
+                if (!readTrailer(input)) {
+                    return;
+                }
+                continue;
+            }
+            inflate(input, output);
+        }
+    }
+
+    // 解出当前能解出的全部内容；setInput(ByteBuffer) 会推进输入的位置，流结束后剩余的字节属于尾部或下一个成员
+    private void inflate(ByteBuffer input, List<ByteBuffer> output) throws IOException, DataFormatException {
+        if (!input.hasRemaining()) {
+            return;
+        }
+        inflater.setInput(input);
+        while (!inflater.finished()) {
+            scratch.clear();
+            int produced = inflater.inflate(scratch);
+            if (inflater.needsDictionary()) {
+                throw new IOException("响应解压失败: 不支持预设字典");
+            }
+            if (produced == 0) {
+                break;
+            }
+            scratch.flip();
+            if (gzip) {
+                crc.update(scratch.duplicate());
+            }
+            // 流式回复每次刷新只有几个字节，不为每次刷新分配整块缓冲区
+            ByteBuffer chunk = ByteBuffer.allocate(produced);
+            chunk.put(scratch);
+            chunk.flip();
+            output.add(chunk);
+        }
+        if (inflater.finished()) {
+            if (gzip) {
+                inTrailer = true;
+            } else {
+                finished = true;
+                end();
+            }
+        }
+    }
+
+    // 读取gzip头部，或判断deflate是zlib格式还是裸deflate；返回需要先解压的已缓存字节，头部不完整时返回null
+    private ByteBuffer startMember(ByteBuffer input) throws IOException {
+        if (!gzip) {
+            if (pending.length + input.remaining() < 2) {
+                pending = append(pending, input, input.remaining());
+                return null;
+            }
+            int cmf = byteAt(input, 0) & 0xff;
+            int flg = byteAt(input, 1) & 0xff;
+            // zlib头部：压缩方法为8，且头两个字节按大端组成的数是31的倍数
+            boolean zlib = (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+            inflater = new Inflater(!zlib);
+            ByteBuffer prefix = ByteBuffer.wrap(pending);
+            pending = new byte[0];
+            return prefix;
+        }
+        int headerLength = gzipHeaderLength();
+        while (headerLength < 0) {
+            if (!input.hasRemaining()) {
+                return null;
+            }
+            pending = append(pending, input, Math.min(input.remaining(), 512));
+            headerLength = gzipHeaderLength();
+        }
+        // 多读进来的部分退回输入
+        int extra = pending.length - headerLength;
+        input.position(input.position() - extra);
+        pending = new byte[0];
+        inflater = new Inflater(true);
+        return ByteBuffer.allocate(0);
+    }
+
+    // 先从缓存的字节取，不够时从输入中看（不移动位置）
+    private byte byteAt(ByteBuffer input, int index) {
+        return index < pending.length ? pending[index] : input.get(input.position() + index - pending.length);
+    }
+
+    // 头部完整时返回长度，还不完整时返回-1
+    private int gzipHeaderLength() throws IOException {
+        byte[] h = pending;
+        if (h.length < 10) {
+            return -1;
+        }
+        if (((h[0] & 0xff) | ((h[1] & 0xff) << 8)) != GZIP_MAGIC || h[2] != 8) {
+            throw new IOException("响应解压失败: 不是gzip格式");
+        }
+        int flags = h[3] & 0xff;
+        int pos = 10;
+        if ((flags & FEXTRA) != 0) {
+            if (h.length < pos + 2) {
+                return -1;
+            }
+            pos += 2 + ((h[pos] & 0xff) | ((h[pos + 1] & 0xff) << 8));
+        }
+        if ((flags & FNAME) != 0) {
+            pos = skipZeroTerminated(h, pos);
+        }
+        if (pos >= 0 && (flags & FCOMMENT) != 0) {
+            pos = skipZeroTerminated(h, pos);
+        }
+        if (pos >= 0 && (flags & FHCRC) != 0) {
+            pos += 2;
+        }
+        return pos >= 0 && pos <= h.length ? pos : -1;
+    }
+
+    private static int skipZeroTerminated(byte[] bytes, int pos) {
+        for (int i = pos; i < bytes.length; i++) {
+            if (bytes[i] == 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    // gzip尾部：CRC32和原始长度（各4字节，小端）
+    private boolean readTrailer(ByteBuffer input) throws IOException {
+        byte[] trailer = take(input, 8);
+        if (trailer == null) {
+            return false;
+        }
+        long expectedCrc = readInt(trailer, 0) & 0xffffffffL;
+        long expectedSize = readInt(trailer, 4) & 0xffffffffL;
+        if (expectedCrc != crc.getValue() || expectedSize != (inflater.getBytesWritten() & 0xffffffffL)) {
+            throw new IOException("响应解压失败: gzip校验不一致");
+        }
+        inTrailer = false;
+        finished = true;
+        end();
+        return true;
+    }
+
+    // 凑齐指定数量的字节，不够时先存起来
+    private byte[] take(ByteBuffer input, int count) {
+        int need = count - pending.length;
+        pending = append(pending, input, Math.min(need, input.remaining()));
+        if (pending.length < count) {
+            return null;
+        }
+        byte[] result = pending;
+        pending = new byte[0];
+        return result;
+    }
+
+    private static byte[] append(byte[] bytes, ByteBuffer input, int count) {
+        byte[] result = new byte[bytes.length + count];
+        System.arraycopy(bytes, 0, result, 0, bytes.length);
+        input.get(result, bytes.length, count);
+        return result;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | ((bytes[offset + 1] & 0xff) << 8)
+                | ((bytes[offset + 2] & 0xff) << 16) | ((bytes[offset + 3] & 0xff) << 24);
+    }
+
+    private void end() {
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.swx.mcompanion.client.network;
+
+import com.swx.mcompanion.config.ClientConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 伴侣模组专用的网络与IO线程池。
+ * 不占用 ForkJoinPool.commonPool（游戏和其他模组的并行任务都在用它），
+ * 并发数有上限，线程均为守护线程，带有独立的运行指标。
+ * 在支持虚拟线程的JVM上可以通过配置改用虚拟线程，并发上限同样生效。
+ */
+public final class NetworkExecutor implements Executor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(NetworkExecutor.class);
+    private static final int QUEUE_CAPACITY = 256;
+    private static NetworkExecutor instance;
+
+    private final ExecutorService delegate;
+    private final int maxConcurrency;
+    private final boolean virtualThreads;
+    // 虚拟线程模式下用于限制并发数
+    private final Semaphore permits;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger peakActive = new AtomicInteger();
+
+    private NetworkExecutor(int maxConcurrency, boolean preferVirtualThreads) {
+        this.maxConcurrency = maxConcurrency;
+        ExecutorService virtual = preferVirtualThreads ? createVirtualThreadExecutor() : null;
+        if (virtual != null) {
+            this.delegate = virtual;
+            this.virtualThreads = true;
+            this.permits = new Semaphore(maxConcurrency);
+        } else {
+            AtomicInteger threadIndex = new AtomicInteger();
+            ThreadFactory threadFactory = runnable -> {
+                Thread thread = new Thread(runnable, "MCompanion-Net-" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, 30, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(QUEUE_CAPACITY), threadFactory);
+            pool.allowCoreThreadTimeOut(true);
+            this.delegate = pool;
+            this.virtualThreads = false;
+            this.permits = null;
+        }
+    }
+
+    public static synchronized NetworkExecutor get() {
+        if (instance == null) {
+            instance = new NetworkExecutor(ClientConfig.getNetworkThreads(), ClientConfig.isUseVirtualThreads());
+            LOGGER.debug("创建网络线程池: 并发上限 {}, 虚拟线程 {}", instance.maxConcurrency, instance.virtualThreads);
+        }
+        return instance;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        submitted.incrementAndGet();
+        try {
+            delegate.execute(() -> run(command));
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * 与 {@link #execute} 相同，但队列已满时不抛出异常，改在单独的守护线程上执行。
+     * 用于不能丢弃的任务：重试、续传和空闲检查丢失后，请求会一直停在等待响应的状态。
+     */
+    public void executeOrSpawn(Runnable command) {
+        try {
+            execute(command);
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("网络线程池队列已满，改用单独的线程执行任务");
+            Thread thread = new Thread(command, "MCompanion-Net-Overflow");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void run(Runnable command) {
+        if (permits != null) {
+            permits.acquireUninterruptibly();
+        }
+        int running = active.incrementAndGet();
+        peakActive.accumulateAndGet(running, Math::max);
+        try {
+            command.run();
+            completed.incrementAndGet();
+        } catch (RuntimeException | Error e) {
+            failed.incrementAndGet();
+            throw e;
+        } finally {
+            active.decrementAndGet();
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+
+    public Metrics getMetrics() {
+        int queued = delegate instanceof ThreadPoolExecutor pool ? pool.getQueue().size() : 0;
+        return new Metrics(submitted.get(), completed.get(), failed.get(), rejected.get(),
+                active.get(), peakActive.get(), queued, maxConcurrency, virtualThreads);
+    }
+
+    /**
+     * 关闭线程池，正在执行的任务会被中断。之后再调用 {@link #get()} 会重新创建。
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.delegate.shutdownNow();
+            LOGGER.info("网络线程池已关闭: {}", instance.getMetrics());
+            instance = null;
+        }
+    }
+
+    // 通过反射创建虚拟线程执行器，JVM不支持时返回null
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) java.util.concurrent.Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.info("当前JVM不支持虚拟线程，改用平台线程池");
+            return null;
+        }
+    }
+
+    // 线程池运行指标快照
+    public static final class Metrics {
+        public final long submitted;
+        public final long completed;
+        public final long failed;
+        public final long rejected;
+        public final int active;
+        public final int peakActive;
+        public final int queued;
+        public final int maxConcurrency;
+        public final boolean virtualThreads;
+
+        Metrics(long submitted, long completed, long failed, long rejected, int active, int peakActive,
+                int queued, int maxConcurrency, boolean virtualThreads) {
+            this.submitted = submitted;
+            this.completed = completed;
+            this.failed = failed;
+            this.rejected = rejected;
+            this.active = active;
+            this.peakActive = peakActive;
+            this.queued = queued;
+            this.maxConcurrency = maxConcurrency;
+            this.virtualThreads = virtualThreads;
+        }
+
+        @Override
+        public String toString() {
+            return "submitted=" + submitted + ", completed=" + completed + ", failed=" + failed
+                    + ", rejected=" + rejected + ", active=" + active + ", peakActive=" + peakActive
+                    + ", queued=" + queued + ", maxConcurrency=" + maxConcurrency + ", virtualThreads=" + virtualThreads;
+        }
+    }
+}
@@ -1,127 +1,649 @@
 package com.swx.mcompanion.client.network;
 
 import com.google.gson.Gson;
-import com.google.gson.JsonObject;
+import com.swx.mcompanion.client.metrics.ClientMetrics;
+import com.swx.mcompanion.client.metrics.JfrEvents;
 import com.swx.mcompanion.config.ClientConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ConnectException;
+import java.net.URI;
 import java.net.URLEncoder;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpTimeoutException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
 
 public class SimpleAiChatClient {
     private static final Logger LOGGER = LoggerFactory.getLogger(SimpleAiChatClient.class);
     private static final Gson GSON = new Gson();
+    // 消息达到这个长度才压缩请求体，短消息压缩得不偿失
+    private static final int GZIP_MIN_CHARS = 512;
+    // 服务端把 "data:" 后面的空格当作回复内容的一部分，不按规范去掉
+    static final boolean STRIP_LEADING_SPACE = false;
+    // 服务端通过 retry 字段或 Retry-After 指定的等待时间上限，以及连接中断后连续续传的次数上限
+    private static final long MAX_RETRY_MILLIS = 30_000;
+    private static final int MAX_RESUME_ATTEMPTS = 5;
+    // 服务端没有指定等待时间时，按这个基数做带抖动的指数退避
+    private static final long BACKOFF_BASE_MILLIS = 500;
+    private static final long BACKOFF_MAX_MILLIS = 8_000;
+    // 协商结果：服务器不支持POST或gzip时记下来，配置变化后重新尝试
+    private static volatile boolean postUnsupported = false;
+    private static volatile boolean gzipUnsupported = false;
+
+    static {
+        ClientConfig.addListener(() -> {
+            postUnsupported = false;
+            gzipUnsupported = false;
+        });
+    }
+
     private final String chatId;
+    // 尚未结束的请求，close() 时统一取消
+    private final Set<ChatRequest> activeRequests = ConcurrentHashMap.newKeySet();
 
     public SimpleAiChatClient() {
         this.chatId = UUID.randomUUID().toString();
     }
 
-    public void sendMessage(String message, Consumer<String> onStreamData, Consumer<String> onComplete, Consumer<String> onError) {
+    /**
+     * 旧的快照式接口，每个token都会拿到累计全文，保留给现有调用方。
+     */
+    public ChatRequest sendMessage(String message, Consumer<String> onStreamData, Consumer<String> onComplete, Consumer<String> onError) {
+        return sendMessage(message, StreamListener.ofSnapshots(onStreamData, onComplete, onError));
+    }
+
+    /**
+     * 异步发送消息，返回可以随时取消的请求句柄。
+     */
+    public ChatRequest sendMessage(String message, StreamListener listener) {
+        ChatRequest chatRequest = new ChatRequest(listener);
         String apiKey = ClientConfig.getApiKey();
         if (apiKey.isEmpty()) {
-            onError.accept("API Key未配置");
+            chatRequest.fail("API Key未配置");
+            return chatRequest;
+        }
+
+        activeRequests.add(chatRequest);
+        ReplyStream stream = new ReplyStream(chatRequest, System.nanoTime(), ChatTransport.isWarm());
+        chatRequest.onTerminated(() -> {
+            activeRequests.remove(chatRequest);
+            stream.releasePermit();
+        });
+        ClientConfig.RequestMode mode = ClientConfig.getRequestMode();
+        boolean post = mode == ClientConfig.RequestMode.POST || (mode == ClientConfig.RequestMode.AUTO && !postUnsupported);
+        if (stream.acquirePermit()) {
+            send(stream, message, apiKey, post);
+        }
+        return chatRequest;
+    }
+
+    // 发送一次请求；服务器不支持POST或gzip时换一种方式重发，暂时失败时按退避策略重试，都沿用同一条回复
+    private void send(ReplyStream stream, String message, String apiKey, boolean post) {
+        ChatRequest chatRequest = stream.request;
+        HttpRequest request;
+        boolean gzip = post && ClientConfig.isCompressRequests() && !gzipUnsupported
+                && message.length() >= GZIP_MIN_CHARS;
+        try {
+            // 读取不设超时（用于流式响应），长时间没有数据由空闲看门狗处理
+            HttpRequest.Builder builder = post ? buildPost(message, gzip) : buildGet(message);
+            if (ClientConfig.isCompressResponses()) {
+                // HttpClient不会自动解压，由 InflatingSubscriber 边收边解
+                builder.header("Accept-Encoding", "gzip, deflate");
+            }
+            request = builder
+                    .header("Accept", "text/event-stream")
+                    .header("Cache-Control", "no-cache")
+                    .header("X-API-Key", apiKey)
+                    .build();
+        } catch (Exception e) {
+            LOGGER.error("发送请求失败", e);
+            chatRequest.fail("发送请求失败: " + e.getMessage());
             return;
         }
 
-        // 在新线程中执行网络请求，避免阻塞主线程
-        CompletableFuture.runAsync(() -> {
-            try {
-                String urlString = ClientConfig.getFullChatUrl() + 
-                    "?message=" + URLEncoder.encode(message, StandardCharsets.UTF_8) +
-                    "&chatId=" + URLEncoder.encode(chatId, StandardCharsets.UTF_8);
-
-                URL url = new URL(urlString);
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                
-                // 设置请求属性
-                connection.setRequestMethod("GET");
-                connection.setRequestProperty("Accept", "text/event-stream");
-                connection.setRequestProperty("Cache-Control", "no-cache");
-                connection.setRequestProperty("X-API-Key", apiKey);
-                connection.setConnectTimeout(30000); // 30秒连接超时
-                connection.setReadTimeout(0); // 无限读取超时（用于流式响应）
-
-                int responseCode = connection.getResponseCode();
-                if (responseCode != 200) {
-                    String errorMsg = "HTTP错误: " + responseCode;
-                    try (BufferedReader errorReader = new BufferedReader(
-                            new InputStreamReader(connection.getErrorStream(), StandardCharsets.UTF_8))) {
-                        StringBuilder errorBody = new StringBuilder();
-                        String line;
-                        while ((line = errorReader.readLine()) != null) {
-                            errorBody.append(line);
-                        }
-                        if (errorBody.length() > 0) {
-                            errorMsg += " - " + errorBody.toString();
-                        }
-                    } catch (Exception e) {
-                        LOGGER.warn("无法读取错误响应", e);
-                    }
-                    onError.accept(errorMsg);
+        // 通过共享的传输层异步发送，响应体按数据块推送，不占用阻塞线程
+        EventStreamSubscriber attempt = stream.open(request);
+        attempt.future.whenComplete((response, throwable) -> {
+            if (!chatRequest.isActive() || attempt.streaming) {
+                return; // 已取消或已结束；事件流开始后的中断和结束由订阅者处理
+            }
+            if (throwable == null) {
+                int status = response.statusCode();
+                if (post && ClientConfig.getRequestMode() == ClientConfig.RequestMode.AUTO
+                        && (status == 404 || status == 405 || status == 501)) {
+                    // 旧服务器没有POST接口，之后的请求直接用GET
+                    postUnsupported = true;
+                    LOGGER.info("服务器不支持POST聊天请求（HTTP {}），改用GET", status);
+                    send(stream, message, apiKey, false);
+                    return;
+                }
+                if (gzip && status == 415) {
+                    gzipUnsupported = true;
+                    LOGGER.info("服务器不接受gzip压缩的请求体，改为不压缩");
+                    send(stream, message, apiKey, true);
                     return;
                 }
+            }
+            stream.onAttemptFailed(attempt, response, throwable, () -> send(stream, message, apiKey, post));
+        });
+    }
+
+    private static String describeHttpError(HttpResponse<String> response) {
+        String errorMsg = "HTTP错误: " + response.statusCode();
+        String errorBody = response.body();
+        if (errorBody != null && !errorBody.isEmpty()) {
+            errorMsg += " - " + errorBody.replace("\n", "").replace("\r", "");
+        }
+        return errorMsg;
+    }
 
-                // 读取流式响应
-                try (BufferedReader reader = new BufferedReader(
-                        new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
-                    
-                    StringBuilder fullMessage = new StringBuilder();
-                    String line;
-                    
-                    while ((line = reader.readLine()) != null) {
-                        LOGGER.debug("接收到数据行: {}", line);
-                        
-                        // 只处理有实际数据的SSE行
-                        if (line.startsWith("data:")) {
-                            String data = line.substring(5); // 移除 "data:" 前缀
-                            if (!data.equals("[DONE]")) {
-                                // 处理空的data行 - 这些代表换行符
-                                if (data.isEmpty()) {
-                                    fullMessage.append("\n");
-                                } else {
-                                    // 直接拼接数据，完全保持原有格式
-                                    fullMessage.append(data);
-                                }
-                                
-                                // 临时调试：输出当前的完整消息用于检查
-                                LOGGER.debug("当前消息长度: {}", fullMessage.length());
-                                if (fullMessage.length() < 500) {
-                                    LOGGER.debug("完整消息内容: [{}]", fullMessage.toString().replace("\n", "\\n"));
-                                }
-                                
-                                // 实时更新显示完整消息
-                                onStreamData.accept(fullMessage.toString());
-                            }
-                        }
-                        // 忽略空行和注释行，它们只是SSE协议的分隔符
+    private static Throwable unwrap(Throwable throwable) {
+        return throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause() : throwable;
+    }
+
+    // 有的异常（例如连接被拒绝）没有消息
+    private static String describe(Throwable cause) {
+        if (cause instanceof ConnectException) {
+            return "无法连接到服务器";
+        }
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+    }
+
+    // 带抖动的指数退避：第 n 次重试在 基数×2^(n-1)（不超过上限）的一半到全部之间随机等待，避免客户端同时重连
+    static long backoffMillis(int attempt) {
+        long ceiling = Math.min(BACKOFF_MAX_MILLIS, BACKOFF_BASE_MILLIS << Math.min(attempt - 1, 20));
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+
+    // 429和503响应可能带有以秒为单位的 Retry-After，没有或无法识别时返回-1
+    private static long retryAfterMillis(HttpResponse<?> response) {
+        String value = response.headers().firstValue("Retry-After").orElse("").trim();
+        if (value.isEmpty() || value.length() > 9 || !value.chars().allMatch(Character::isDigit)) {
+            return -1;
+        }
+        return Math.min(MAX_RETRY_MILLIS, Long.parseLong(value) * 1000);
+    }
+
+    // 消息和会话ID放在JSON请求体中，直接序列化成字节（需要时边写边压缩），不拼接长URL
+    private HttpRequest.Builder buildPost(String message, boolean gzip) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(64, gzip ? message.length() : message.length() * 3));
+        OutputStream out = gzip ? new GZIPOutputStream(bytes) : bytes;
+        try (Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+            GSON.toJson(new ChatBody(message, chatId), writer);
+        }
+        HttpRequest.Builder builder = HttpRequest.newBuilder(ChatTransport.getChatUri())
+                .POST(HttpRequest.BodyPublishers.ofByteArray(bytes.toByteArray()))
+                .header("Content-Type", "application/json; charset=utf-8");
+        if (gzip) {
+            builder.header("Content-Encoding", "gzip");
+        }
+        return builder;
+    }
+
+    private HttpRequest.Builder buildGet(String message) {
+        URI chatUri = ChatTransport.getChatUri();
+        String query = "message=" + URLEncoder.encode(message, StandardCharsets.UTF_8) +
+            "&chatId=" + URLEncoder.encode(chatId, StandardCharsets.UTF_8);
+        return HttpRequest.newBuilder(URI.create(chatUri + (chatUri.getRawQuery() == null ? "?" : "&") + query))
+                .GET();
+    }
+
+    // POST请求体
+    private static final class ChatBody {
+        final String message;
+        final String chatId;
+
+        ChatBody(String message, String chatId) {
+            this.message = message;
+            this.chatId = chatId;
+        }
+    }
+
+    /**
+     * 一条回复的解码状态和连接策略，跨连接保留。
+     * <ul>
+     *     <li>还没开始读取事件流时，确定服务器没有处理请求的失败（连接失败、连接超时、429/503）按带抖动的指数退避重发；
+     *     其余失败（请求发出后的超时或断开、502/504 等）服务器可能已经在生成回复，已知事件ID时按下一条续传，否则直接报错；</li>
+     *     <li>事件流带有事件ID时，连接中断后按服务端 retry 字段建议的间隔重新发送同一个请求，
+     *     并通过 Last-Event-ID 告诉服务端从哪里继续，新内容接在已收到的部分后面；</li>
+     *     <li>每个连接都有空闲看门狗，服务器长时间没有任何数据就中止连接，按上面两种情况处理；</li>
+     *     <li>每次发送前向共用的熔断器申请，服务器连续失败时直接报错，不再等待连接超时。</li>
+     * </ul>
+     * 重试和续传的状态通过 {@link StreamListener#onStatus(String)} 告诉界面。
+     */
+    private static final class ReplyStream implements SseDecoder.Handler {
+        private final ChatRequest request;
+        private final ChatEventHandler events;
+        private final SseDecoder decoder;
+        private final long startNanos;
+        private final boolean warmed;
+        private boolean firstDelta = true;
+        // 输出速率统计：第一段和最后一段到达的时间，以及收到的段数
+        private long firstDeltaNanos;
+        private long lastDeltaNanos;
+        private long deltaCount;
+        // 解码器分发的事件总数，JFR 事件用它统计每批数据里的事件数
+        private int dispatchedEvents;
+        // 服务端通过 retry 字段建议的重连间隔，-1表示没有指定
+        private volatile long retryMillis = -1;
+        // 连续重试和续传的次数，收到新内容后清零
+        private volatile int retries = 0;
+        private volatile int resumeAttempts = 0;
+        // 最近一次发送的请求，续传时在它的基础上加 Last-Event-ID
+        private volatile HttpRequest lastRequest;
+        // 持有熔断器的试探许可，结果报告之前请求结束时要归还
+        private volatile boolean holdingProbe = false;
+        // 界面上正在显示连接状态
+        private volatile boolean statusShown = false;
+
+        ReplyStream(ChatRequest request, long startNanos, boolean warmed) {
+            this.request = request;
+            this.startNanos = startNanos;
+            this.warmed = warmed;
+            StreamListener guarded = request.guardedListener();
+            // 第一段增量到达时记录首字延迟，响应体按顺序回调，不需要同步
+            this.events = new ChatEventHandler(new StreamListener() {
+                @Override
+                public void onDelta(String delta, long sequence, Supplier<String> snapshot) {
+                    long now = System.nanoTime();
+                    if (firstDelta) {
+                        firstDelta = false;
+                        firstDeltaNanos = now;
+                        ChatTransport.recordTtft(now - startNanos, warmed);
                     }
-                    
-                    // 完成回调
-                    onComplete.accept(fullMessage.toString());
-                    
-                } catch (IOException e) {
-                    LOGGER.error("读取响应流失败", e);
-                    onError.accept("读取响应失败: " + e.getMessage());
+                    lastDeltaNanos = now;
+                    deltaCount++;
+                    retries = 0;
+                    resumeAttempts = 0;
+                    guarded.onDelta(delta, sequence, snapshot);
                 }
 
-            } catch (Exception e) {
-                LOGGER.error("发送请求失败", e);
-                onError.accept("发送请求失败: " + e.getMessage());
+                @Override
+                public void onComplete(String fullMessage) {
+                    guarded.onComplete(fullMessage);
+                }
+
+                @Override
+                public void onError(String error) {
+                    guarded.onError(error);
+                }
+            });
+            this.decoder = new SseDecoder(this, STRIP_LEADING_SPACE);
+        }
+
+        @Override
+        public void onEvent(SseDecoder.Event event) {
+            dispatchedEvents++;
+            events.onEvent(event);
+        }
+
+        @Override
+        public void onRetry(long millis) {
+            retryMillis = Math.min(millis, MAX_RETRY_MILLIS);
+        }
+
+        // 回复完整结束，记录输出速率
+        private void complete() {
+            if (deltaCount > 1 && lastDeltaNanos > firstDeltaNanos) {
+                ClientMetrics.TOKENS_PER_SECOND.record(Math.round((deltaCount - 1) * 1e9 / (lastDeltaNanos - firstDeltaNanos)));
             }
-        });
+            request.guardedListener().onComplete(events.getFullMessage());
+        }
+
+        // 向熔断器申请发送，熔断期间直接以错误结束这条回复
+        boolean acquirePermit() {
+            CircuitBreaker circuit = ChatTransport.circuit();
+            CircuitBreaker.Permit permit = circuit.tryAcquire();
+            if (permit == CircuitBreaker.Permit.DENIED) {
+                ChatTransport.recordCircuitRejection();
+                long seconds = (circuit.getRemainingMillis() + 999) / 1000;
+                request.fail(seconds > 0 ? "服务器暂时不可用，请 " + seconds + " 秒后再试" : "服务器暂时不可用，正在检测连接");
+                return false;
+            }
+            holdingProbe = permit == CircuitBreaker.Permit.PROBE;
+            return true;
+        }
+
+        void releasePermit() {
+            if (holdingProbe) {
+                holdingProbe = false;
+                ChatTransport.circuit().release();
+            }
+        }
+
+        private void reportSuccess() {
+            holdingProbe = false;
+            ChatTransport.circuit().onSuccess();
+        }
+
+        private void reportFailure() {
+            holdingProbe = false;
+            if (ChatTransport.circuit().onFailure()) {
+                ChatTransport.recordCircuitOpen();
+                LOGGER.warn("聊天接口连续失败，{} 秒内的请求将直接失败",
+                        (ChatTransport.circuit().getRemainingMillis() + 999) / 1000);
+            }
+        }
+
+        private void showStatus(String status) {
+            statusShown = status != null;
+            request.guardedListener().onStatus(status);
+        }
+
+        EventStreamSubscriber open(HttpRequest httpRequest) {
+            lastRequest = httpRequest;
+            EventStreamSubscriber subscriber = new EventStreamSubscriber(this, decoder.getLastEventId());
+            JfrEvents.ChatRequest started = new JfrEvents.ChatRequest();
+            if (started.shouldCommit()) {
+                // 不记录查询参数，GET 方式的请求把消息放在里面
+                URI uri = httpRequest.uri();
+                started.method = httpRequest.method();
+                started.uri = uri.getScheme() + "://" + uri.getRawAuthority() + uri.getRawPath();
+                started.lastEventId = subscriber.resumedFrom;
+                started.retries = retries;
+                started.commit();
+            }
+            subscriber.firstByte.begin();
+            subscriber.future = ChatTransport.get().send(httpRequest, subscriber::bodyHandler);
+            request.attach(subscriber.future);
+            long idleNanos = TimeUnit.SECONDS.toNanos(ClientConfig.getIdleTimeoutSeconds());
+            if (idleNanos > 0) {
+                watch(subscriber, idleNanos, idleNanos);
+            }
+            return subscriber;
+        }
+
+        // 空闲看门狗：连接超过 idleNanos 没有收到任何数据（响应头、事件或保活注释）就中止它
+        private void watch(EventStreamSubscriber attempt, long idleNanos, long delayNanos) {
+            delayed(delayNanos, TimeUnit.NANOSECONDS).execute(() -> {
+                if (!request.isActive() || attempt.closed || attempt.future.isDone()) {
+                    return;
+                }
+                long idle = System.nanoTime() - attempt.lastActivity;
+                if (idle < idleNanos) {
+                    watch(attempt, idleNanos, idleNanos - idle);
+                    return;
+                }
+                ChatTransport.recordIdleTimeout();
+                LOGGER.warn("服务器 {} 秒没有发送数据，中止连接", TimeUnit.NANOSECONDS.toSeconds(idleNanos));
+                boolean streaming = attempt.streaming;
+                attempt.abort(new HttpTimeoutException("服务器 " + TimeUnit.NANOSECONDS.toSeconds(idleNanos) + " 秒没有响应"));
+                if (streaming) {
+                    // 订阅已取消，不会再有回调，由这里按连接中断处理；还没收到响应头时由发送方的回调处理
+                    reportFailure();
+                    onDisconnected(attempt.timeout);
+                }
+            });
+        }
+
+        // 收到200响应，开始读取事件流
+        void onConnected() {
+            reportSuccess();
+            if (statusShown) {
+                showStatus(null);
+            }
+        }
+
+        // 还没开始读取事件流的请求失败：确定服务器没有处理请求的失败按退避策略重试；
+        // 其余失败时服务器可能已经在生成回复，已知事件ID时按断线续传，否则直接报错
+        void onAttemptFailed(EventStreamSubscriber attempt, HttpResponse<String> response, Throwable throwable,
+                             Runnable retry) {
+            String error;
+            boolean retryable;
+            long delay = -1;
+            if (throwable != null) {
+                // 只有连接没有建立时请求一定没有送达；请求发出后的超时或断开，服务器可能已经收到，重发会重复生成
+                Throwable cause = attempt.timeout != null ? attempt.timeout : unwrap(throwable);
+                retryable = cause instanceof ConnectException || cause instanceof HttpConnectTimeoutException;
+                error = "发送请求失败: " + describe(cause);
+                LOGGER.warn("发送请求失败: {}", cause.toString());
+                reportFailure();
+            } else {
+                // 429 和 503 表示服务器拒绝处理这个请求；502、504 时上游可能已经开始生成
+                int status = response.statusCode();
+                retryable = status == 429 || status == 503;
+                error = describeHttpError(response);
+                if (retryable || status >= 500) {
+                    reportFailure();
+                    delay = retryAfterMillis(response);
+                } else {
+                    reportSuccess(); // 客户端错误，服务器本身是正常的
+                }
+            }
+            // 续传请求失败时已经知道事件ID，服务器可能已经开始生成的失败改为再次续传，取回剩余内容
+            boolean maybeGenerating = throwable != null || response.statusCode() >= 500;
+            if (!retryable && maybeGenerating && !decoder.getLastEventId().isEmpty()) {
+                onDisconnected(new IOException(error));
+                return;
+            }
+            if (!retryable || retries >= ClientConfig.getMaxRetries()) {
+                request.fail(error);
+                return;
+            }
+            retries++;
+            if (delay < 0) {
+                delay = backoffMillis(retries);
+            }
+            ChatTransport.recordRetry();
+            LOGGER.info("{} ms 后重试，第 {} 次", delay, retries);
+            showStatus(String.format("连接失败，%.1f 秒后重试（第 %d 次）", delay / 1000.0, retries));
+            schedule(delay, () -> {
+                if (acquirePermit()) {
+                    retry.run();
+                }
+            });
+        }
+
+        // 响应体正常结束
+        void onEnd(EventStreamSubscriber subscriber) {
+            if (!request.isActive()) {
+                return;
+            }
+            String lastEventId = decoder.getLastEventId();
+            // 收到 [DONE]、服务端不提供事件ID，或续传的连接没有带来新事件，都说明回复已经完整
+            if (events.isDone() || lastEventId.isEmpty() || lastEventId.equals(subscriber.resumedFrom)) {
+                complete();
+                return;
+            }
+            onDisconnected(null);
+        }
+
+        // 事件流中途断开；cause 为 null 表示服务端在 [DONE] 之前正常关闭了连接
+        void onDisconnected(Throwable cause) {
+            if (!request.isActive()) {
+                return;
+            }
+            String lastEventId = decoder.getLastEventId();
+            if (lastEventId.isEmpty() || resumeAttempts >= MAX_RESUME_ATTEMPTS) {
+                if (cause == null) {
+                    complete();
+                } else {
+                    LOGGER.error("读取响应流失败", cause);
+                    request.fail("读取响应失败: " + describe(cause));
+                }
+                return;
+            }
+            resumeAttempts++;
+            long delay = retryMillis >= 0 ? retryMillis : backoffMillis(resumeAttempts);
+            ChatTransport.recordResume();
+            LOGGER.info("回复连接中断（{}），{} ms 后从事件 {} 继续，第 {} 次",
+                    cause != null ? describe(cause) : "连接已关闭", delay, lastEventId, resumeAttempts);
+            showStatus("连接中断，正在续传…");
+            schedule(delay, () -> {
+                if (acquirePermit()) {
+                    resume(lastEventId);
+                }
+            });
+        }
+
+        private void resume(String lastEventId) {
+            HttpRequest resumeRequest = HttpRequest.newBuilder(lastRequest,
+                            (name, value) -> !name.equalsIgnoreCase("Last-Event-ID"))
+                    .header("Last-Event-ID", lastEventId)
+                    .build();
+            EventStreamSubscriber attempt = open(resumeRequest);
+            attempt.future.whenComplete((response, throwable) -> {
+                if (!request.isActive() || attempt.streaming) {
+                    return;
+                }
+                if (throwable == null && response.statusCode() == 204) {
+                    // 服务端表示这条回复没有更多内容
+                    reportSuccess();
+                    complete();
+                    return;
+                }
+                onAttemptFailed(attempt, response, throwable, () -> resume(lastEventId));
+            });
+        }
+
+        // 等待期间请求被取消时不再执行
+        private void schedule(long delayMillis, Runnable task) {
+            delayed(delayMillis, TimeUnit.MILLISECONDS).execute(() -> {
+                if (request.isActive()) {
+                    task.run();
+                }
+            });
+        }
+
+        // 定时线程上抛出的拒绝异常没有人接收，任务会被悄悄丢掉，所以队列满时改用单独的线程执行
+        private static Executor delayed(long delay, TimeUnit unit) {
+            return CompletableFuture.delayedExecutor(delay, unit, NetworkExecutor.get()::executeOrSpawn);
+        }
+    }
+
+    // 一次连接的响应体订阅者，把数据块交给回复共用的SSE解码器，结束回调由请求句柄保证只发生一次
+    private static final class EventStreamSubscriber implements Flow.Subscriber<List<ByteBuffer>> {
+        private final ReplyStream stream;
+        // 续传时请求里带的事件ID，首次连接为空字符串
+        private final String resumedFrom;
+        private CompletableFuture<HttpResponse<String>> future;
+        private volatile Flow.Subscription subscription;
+        // 收到200响应、开始读取事件流
+        private volatile boolean streaming;
+        // 连接已经结束或被看门狗中止，之后的回调都忽略
+        private volatile boolean closed;
+        // 看门狗中止连接的原因
+        private volatile HttpTimeoutException timeout;
+        private volatile long lastActivity = System.nanoTime();
+        private final JfrEvents.FirstByte firstByte = new JfrEvents.FirstByte();
+
+        EventStreamSubscriber(ReplyStream stream, String resumedFrom) {
+            this.stream = stream;
+            this.resumedFrom = resumedFrom;
+        }
+
+        HttpResponse.BodySubscriber<String> bodyHandler(HttpResponse.ResponseInfo responseInfo) {
+            lastActivity = System.nanoTime();
+            firstByte.end();
+            if (firstByte.shouldCommit()) {
+                firstByte.status = responseInfo.statusCode();
+                firstByte.contentEncoding = responseInfo.headers().firstValue("Content-Encoding").orElse(null);
+                firstByte.commit();
+            }
+            if (responseInfo.statusCode() != 200) {
+                return InflatingSubscriber.wrap(responseInfo, HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8));
+            }
+            streaming = true;
+            // 上一个连接断在半个事件中间，没收完的部分由服务端从 Last-Event-ID 之后重新发送
+            stream.decoder.reset();
+            stream.onConnected();
+            return InflatingSubscriber.wrap(responseInfo,
+                    HttpResponse.BodySubscribers.fromSubscriber(this, subscriber -> null));
+        }
+
+        // 中止这个连接，不影响同一条回复之后的重连
+        void abort(HttpTimeoutException reason) {
+            timeout = reason;
+            closed = true;
+            Flow.Subscription current = subscription;
+            if (current != null) {
+                current.cancel();
+            }
+            future.cancel(true);
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            stream.request.attach(subscription);
+            if (closed) {
+                subscription.cancel();
+                return;
+            }
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> chunks) {
+            lastActivity = System.nanoTime();
+            if (closed || !stream.request.isActive()) {
+                return;
+            }
+            JfrEvents.SseBatch batch = new JfrEvents.SseBatch();
+            batch.begin();
+            int eventsBefore = stream.dispatchedEvents;
+            long bytes = 0;
+            for (ByteBuffer chunk : chunks) {
+                bytes += chunk.remaining();
+                stream.decoder.feed(chunk);
+            }
+            batch.end();
+            if (batch.shouldCommit()) {
+                batch.bytes = bytes;
+                batch.events = stream.dispatchedEvents - eventsBefore;
+                batch.commit();
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            // 取消导致的中断不算错误
+            stream.onDisconnected(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            stream.onEnd(this);
+        }
     }
 
+    /**
+     * 取消这个客户端所有尚未结束的请求。连接本身由共享的传输层管理。
+     */
     public void close() {
-        // 简单实现不需要特殊的关闭操作
+        for (ChatRequest request : activeRequests) {
+            request.cancel();
+        }
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,283 @@
+package com.swx.mcompanion.client.network;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 按 Server-Sent Events 规范解析事件流，直接处理网络送来的 {@link ByteBuffer} 数据块。
+ * <ul>
+ *     <li>行结束符可以是 CR、LF 或 CRLF，CRLF 被拆在两个数据块之间也能正确识别；</li>
+ *     <li>支持 data、event、id、retry 字段和注释行，多行 data 以换行连接，遇到空行才分发事件；</li>
+ *     <li>字段值在整行收齐后才按UTF-8解码，多字节字符被拆在数据块之间不会出错；</li>
+ *     <li>行内容复制进可复用的缓冲区，每个事件只在分发时生成一次字符串；类型和ID与上一个事件相同时沿用之前的字符串。</li>
+ * </ul>
+ * 数据流结束时尚未分发的事件按规范丢弃。实例不是线程安全的，响应体回调本身是串行的。
+ */
+public final class SseDecoder {
+    private static final String DEFAULT_EVENT_TYPE = "message";
+    private static final byte[] FIELD_DATA = ascii("data");
+    private static final byte[] FIELD_EVENT = ascii("event");
+    private static final byte[] FIELD_ID = ascii("id");
+    private static final byte[] FIELD_RETRY = ascii("retry");
+
+    /**
+     * 事件回调。
+     */
+    public interface Handler {
+        void onEvent(Event event);
+
+        // 服务端通过 retry 字段建议的重连间隔（毫秒）
+        default void onRetry(long millis) {
+        }
+
+        // 收到注释行，服务端常用它做保活
+        default void onComment() {
+        }
+    }
+
+    /**
+     * 一个已分发的事件。
+     */
+    public static final class Event {
+        public final String type;
+        public final String data;
+        // 分发时的最后事件ID，没有设置过时为空字符串
+        public final String lastEventId;
+
+        Event(String type, String data, String lastEventId) {
+            this.type = type;
+            this.data = data;
+            this.lastEventId = lastEventId;
+        }
+
+        @Override
+        public String toString() {
+            return "Event{type=" + type + ", id=" + lastEventId + ", data=" + data + "}";
+        }
+    }
+
+    private final Handler handler;
+    // 规范要求去掉冒号后的一个空格；有的服务端把这个空格当作内容，可以关闭
+    private final boolean stripLeadingSpace;
+
+    // 还没遇到行结束符的半行
+    private byte[] line = new byte[256];
+    private int lineLength;
+    // 上一个数据块以CR结尾，下一个字节如果是LF属于同一个换行
+    private boolean skipLineFeed;
+    private boolean firstLine = true;
+
+    private byte[] data = new byte[256];
+    private int dataLength;
+    private byte[] eventType = new byte[16];
+    private int eventTypeLength;
+    // 最近一次的类型字符串，类型不变时不再解码
+    private String lastEventType = DEFAULT_EVENT_TYPE;
+    private byte[] lastEventTypeBytes = new byte[0];
+    // id 字段先写入缓冲，遇到空行才生效；连接中断时没收完的事件的ID不算数
+    private byte[] eventIdBuffer = new byte[16];
+    private int eventIdBufferLength;
+    // 已生效的最后事件ID和它的字节，ID不变时不再解码
+    private byte[] lastEventIdBytes = new byte[0];
+    private String lastEventId = "";
+
+    public SseDecoder(Handler handler) {
+        this(handler, true);
+    }
+
+    public SseDecoder(Handler handler, boolean stripLeadingSpace) {
+        this.handler = handler;
+        this.stripLeadingSpace = stripLeadingSpace;
+    }
+
+    /**
+     * 处理一个数据块，分发其中所有完整的事件。数据块的位置会被移到末尾。
+     */
+    public void feed(ByteBuffer chunk) {
+        int limit = chunk.limit();
+        int position = chunk.position();
+        while (position < limit) {
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (chunk.get(position) == '\n') {
+                    position++;
+                    continue;
+                }
+            }
+            int end = position;
+            byte terminator = 0;
+            while (end < limit) {
+                byte b = chunk.get(end);
+                if (b == '\n' || b == '\r') {
+                    terminator = b;
+                    break;
+                }
+                end++;
+            }
+            if (end == limit) {
+                // 半行留到下一个数据块
+                appendLine(chunk, position, end - position);
+                position = limit;
+                break;
+            }
+            if (lineLength == 0 && chunk.hasArray()) {
+                // 整行都在这个数据块里，直接在原数组上处理
+                processLine(chunk.array(), chunk.arrayOffset() + position, end - position);
+            } else {
+                appendLine(chunk, position, end - position);
+                processLine(line, 0, lineLength);
+                lineLength = 0;
+            }
+            position = end + 1;
+            skipLineFeed = terminator == '\r';
+        }
+        chunk.position(position);
+    }
+
+    /**
+     * 最后一个完整收到的事件的ID，续传时作为 Last-Event-ID 发送。
+     */
+    public String getLastEventId() {
+        return lastEventId;
+    }
+
+    /**
+     * 数据流结束：丢弃没有收完的行和没有分发的事件，最后事件ID保留。
+     */
+    public void reset() {
+        eventIdBuffer = ensureCapacity(eventIdBuffer, lastEventIdBytes.length);
+        System.arraycopy(lastEventIdBytes, 0, eventIdBuffer, 0, lastEventIdBytes.length);
+        eventIdBufferLength = lastEventIdBytes.length;
+        lineLength = 0;
+        dataLength = 0;
+        eventTypeLength = 0;
+        skipLineFeed = false;
+        firstLine = true;
+    }
+
+    private void appendLine(ByteBuffer chunk, int from, int length) {
+        if (length == 0) {
+            return;
+        }
+        line = ensureCapacity(line, lineLength + length);
+        chunk.get(from, line, lineLength, length);
+        lineLength += length;
+    }
+
+    private void processLine(byte[] buf, int offset, int length) {
+        if (firstLine) {
+            firstLine = false;
+            // 数据流开头的UTF-8 BOM
+            if (length >= 3 && buf[offset] == (byte) 0xEF && buf[offset + 1] == (byte) 0xBB && buf[offset + 2] == (byte) 0xBF) {
+                offset += 3;
+                length -= 3;
+            }
+        }
+        if (length == 0) {
+            dispatch();
+            return;
+        }
+        if (buf[offset] == ':') {
+            handler.onComment();
+            return;
+        }
+        int end = offset + length;
+        int colon = offset;
+        while (colon < end && buf[colon] != ':') {
+            colon++;
+        }
+        int valueStart = colon < end ? colon + 1 : end;
+        if (stripLeadingSpace && valueStart < end && buf[valueStart] == ' ') {
+            valueStart++;
+        }
+        int fieldLength = colon - offset;
+        int valueLength = end - valueStart;
+        if (matches(buf, offset, fieldLength, FIELD_DATA)) {
+            data = ensureCapacity(data, dataLength + valueLength + 1);
+            System.arraycopy(buf, valueStart, data, dataLength, valueLength);
+            dataLength += valueLength;
+            data[dataLength++] = '\n';
+        } else if (matches(buf, offset, fieldLength, FIELD_EVENT)) {
+            eventType = ensureCapacity(eventType, valueLength);
+            System.arraycopy(buf, valueStart, eventType, 0, valueLength);
+            eventTypeLength = valueLength;
+        } else if (matches(buf, offset, fieldLength, FIELD_ID)) {
+            // 含NUL的ID按规范忽略
+            for (int i = valueStart; i < end; i++) {
+                if (buf[i] == 0) {
+                    return;
+                }
+            }
+            eventIdBuffer = ensureCapacity(eventIdBuffer, valueLength);
+            System.arraycopy(buf, valueStart, eventIdBuffer, 0, valueLength);
+            eventIdBufferLength = valueLength;
+        } else if (matches(buf, offset, fieldLength, FIELD_RETRY)) {
+            long millis = parseDigits(buf, valueStart, end);
+            if (millis >= 0) {
+                handler.onRetry(millis);
+            }
+        }
+        // 其他字段按规范忽略
+    }
+
+    private void dispatch() {
+        // 没有数据的事件也会更新最后事件ID
+        if (!Arrays.equals(eventIdBuffer, 0, eventIdBufferLength, lastEventIdBytes, 0, lastEventIdBytes.length)) {
+            lastEventIdBytes = Arrays.copyOf(eventIdBuffer, eventIdBufferLength);
+            lastEventId = new String(lastEventIdBytes, StandardCharsets.UTF_8);
+        }
+        if (dataLength == 0) {
+            eventTypeLength = 0;
+            return;
+        }
+        // 去掉最后一个data行追加的换行
+        String text = new String(data, 0, dataLength - 1, StandardCharsets.UTF_8);
+        Event event = new Event(eventTypeString(), text, lastEventId);
+        dataLength = 0;
+        eventTypeLength = 0;
+        handler.onEvent(event);
+    }
+
+    private String eventTypeString() {
+        if (eventTypeLength == 0) {
+            return DEFAULT_EVENT_TYPE;
+        }
+        if (!Arrays.equals(eventType, 0, eventTypeLength, lastEventTypeBytes, 0, lastEventTypeBytes.length)) {
+            lastEventTypeBytes = Arrays.copyOf(eventType, eventTypeLength);
+            lastEventType = new String(lastEventTypeBytes, StandardCharsets.UTF_8);
+        }
+        return lastEventType;
+    }
+
+    private static boolean matches(byte[] buf, int offset, int length, byte[] field) {
+        return Arrays.equals(buf, offset, offset + length, field, 0, field.length);
+    }
+
+    // 只由ASCII数字组成时返回数值，否则返回-1
+    private static long parseDigits(byte[] buf, int from, int to) {
+        if (from == to || to - from > 18) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            byte b = buf[i];
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    private static byte[] ensureCapacity(byte[] array, int capacity) {
+        if (array.length >= capacity) {
+            return array;
+        }
+        return Arrays.copyOf(array, Math.max(capacity, array.length * 2));
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
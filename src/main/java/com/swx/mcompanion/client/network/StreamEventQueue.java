@@ -0,0 +1,117 @@
+package com.swx.mcompanion.client.network;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+
+/**
+ * 网络线程与渲染线程之间的流式事件队列。
+ * 网络线程作为 {@link StreamListener} 无锁地入队，渲染线程每帧调用一次 {@link #drain(StreamListener)}，
+ * 两帧之间到达的所有增量会合并成一次更新，回调全部发生在调用 drain 的线程上。
+ */
+public class StreamEventQueue implements StreamListener {
+    private static final int DELTA = 0;
+    private static final int COMPLETE = 1;
+    private static final int ERROR = 2;
+    private static final int STATUS = 3;
+
+    private final ConcurrentLinkedQueue<Event> events = new ConcurrentLinkedQueue<>();
+    // 以下字段只在消费线程上访问
+    private final StringBuilder merged = new StringBuilder();
+    // 生产方累计全文的快照来源，本身不再保存一份全文，只记录已经分发的长度
+    private Supplier<String> source;
+    private long drainedLength = 0;
+    private String snapshot = "";
+    private boolean finished = false;
+
+    private static final class Event {
+        final int type;
+        final String text;
+        final long sequence;
+        final Supplier<String> snapshot;
+
+        Event(int type, String text, long sequence, Supplier<String> snapshot) {
+            this.type = type;
+            this.text = text;
+            this.sequence = sequence;
+            this.snapshot = snapshot;
+        }
+    }
+
+    /**
+     * 入队一段增量。snapshot 会在消费线程上调用，必须可以跨线程读取；
+     * 它可能已经包含之后才分发的内容，取快照时截到已分发的长度。
+     */
+    @Override
+    public void onDelta(String delta, long sequence, Supplier<String> snapshot) {
+        events.offer(new Event(DELTA, delta, sequence, snapshot));
+    }
+
+    @Override
+    public void onComplete(String fullMessage) {
+        events.offer(new Event(COMPLETE, fullMessage, -1, null));
+    }
+
+    @Override
+    public void onError(String error) {
+        events.offer(new Event(ERROR, error, -1, null));
+    }
+
+    @Override
+    public void onStatus(String status) {
+        events.offer(new Event(STATUS, status, -1, null));
+    }
+
+    /**
+     * 取出自上次调用以来的所有事件并分发给 target，连续的增量合并为一次 onDelta。
+     *
+     * @return 流是否已经结束（完成或出错）
+     */
+    public boolean drain(StreamListener target) {
+        long lastSequence = -1;
+        Event event;
+        while ((event = events.poll()) != null) {
+            if (event.type == DELTA) {
+                merged.append(event.text);
+                lastSequence = event.sequence;
+                source = event.snapshot;
+                continue;
+            }
+            flushMerged(target, lastSequence);
+            if (event.type == STATUS) {
+                target.onStatus(event.text);
+                continue;
+            }
+            finished = true;
+            if (event.type == COMPLETE) {
+                target.onComplete(event.text);
+            } else {
+                target.onError(event.text);
+            }
+        }
+        flushMerged(target, lastSequence);
+        return finished;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    private void flushMerged(StreamListener target, long lastSequence) {
+        if (merged.length() == 0) {
+            return;
+        }
+        String delta = merged.toString();
+        merged.setLength(0);
+        drainedLength += delta.length();
+        snapshot = null;
+        target.onDelta(delta, lastSequence, this::snapshot);
+    }
+
+    private String snapshot() {
+        if (snapshot == null) {
+            String full = source.get();
+            snapshot = full.length() > drainedLength ? full.substring(0, (int) drainedLength) : full;
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,54 @@
+package com.swx.mcompanion.client.network;
+
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 流式回复监听器。
+ * 每次只下发新到达的增量文本和单调递增的序号，累计全文只在调用方需要时才通过快照生成，
+ * 这样无论回复多长，每个token的开销都是常数。
+ */
+public interface StreamListener {
+
+    /**
+     * 收到一段新的增量文本。
+     *
+     * @param delta    本次新增的文本
+     * @param sequence 从0开始单调递增的序号
+     * @param snapshot 按需获取累计全文。回调返回后仍可能在其他线程上被调用（例如 {@link StreamEventQueue}
+     *                 在渲染线程上取快照），实现必须线程安全；之后调用时可能已经包含更晚到达的内容
+     */
+    void onDelta(String delta, long sequence, Supplier<String> snapshot);
+
+    void onComplete(String fullMessage);
+
+    void onError(String error);
+
+    /**
+     * 连接状态变化，例如正在重试、正在续传或服务器暂时不可用；status 为 null 表示已恢复正常。
+     */
+    default void onStatus(String status) {
+    }
+
+    /**
+     * 兼容旧的整段快照式回调：每次增量到达时都把累计全文交给 onStreamData。
+     */
+    static StreamListener ofSnapshots(Consumer<String> onStreamData, Consumer<String> onComplete, Consumer<String> onError) {
+        return new StreamListener() {
+            @Override
+            public void onDelta(String delta, long sequence, Supplier<String> snapshot) {
+                onStreamData.accept(snapshot.get());
+            }
+
+            @Override
+            public void onComplete(String fullMessage) {
+                onComplete.accept(fullMessage);
+            }
+
+            @Override
+            public void onError(String error) {
+                onError.accept(error);
+            }
+        };
+    }
+}
@@ -2,96 +2,297 @@ package com.swx.mcompanion.config;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import net.minecraft.client.Minecraft;
+import com.google.gson.annotations.SerializedName;
+import com.swx.mcompanion.client.network.NetworkExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
+/**
+ * 客户端配置。当前配置以不可变快照的形式发布，任何线程读取都不加锁，
+ * 修改时复制一份新快照再整体替换，同一个快照里的各项配置总是一致的。
+ * 保存会合并短时间内的多次修改，在后台线程写入临时文件后原子替换配置文件。
+ */
 public class ClientConfig {
     private static final Logger LOGGER = LoggerFactory.getLogger(ClientConfig.class);
     private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
     private static final String CONFIG_FILE = "mcompanion_client.json";
-    
-    private static ClientConfigData configData = new ClientConfigData();
-    
+    // 合并保存请求的等待时间
+    private static final long SAVE_DELAY_MS = 500;
+
+    // 已发布的快照不会再被修改
+    private static final AtomicReference<ClientConfigData> current = new AtomicReference<>(new ClientConfigData());
+    private static final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    // 每次请求保存时递增，后台只写最后一次请求对应的快照
+    private static final AtomicLong saveRequests = new AtomicLong();
+    private static final Object writeLock = new Object();
+    private static long savedRequest = 0;
+    private static volatile Path configPath;
+
     public static class ClientConfigData {
         public String apiKey = "";
         public String serverUrl = "http://8.129.225.171:32425/api";
         public String chatEndpoint = "/ai/chat/apikey";
+        public int connectTimeoutSeconds = 30;
+        public boolean preferHttp2 = true;
+        public int networkThreads = 4;
+        public boolean useVirtualThreads = false;
+        public boolean backgroundStreaming = true;
+        public int cacheBudgetMb = 32;
+        public boolean warmUpConnection = true;
+        public RequestMode requestMode = RequestMode.AUTO;
+        public boolean compressRequests = true;
+        public boolean compressResponses = true;
+        public int idleTimeoutSeconds = 60;
+        public int maxRetries = 3;
+        public boolean metricsLog = false;
+        public int metricsLogIntervalSeconds = 60;
+        public boolean messageTextureCache = true;
+        public int textureCacheBudgetMb = 64;
+
+        private ClientConfigData copy() {
+            return GSON.fromJson(GSON.toJsonTree(this), ClientConfigData.class);
+        }
     }
-    
-    static {
-        load();
+
+    // 聊天请求的发送方式
+    public enum RequestMode {
+        // 优先POST，服务器不支持时自动改用GET
+        @SerializedName("auto") AUTO,
+        // 消息放在JSON请求体中
+        @SerializedName("post") POST,
+        // 旧方式，消息放在URL查询参数中
+        @SerializedName("get") GET
     }
-    
-    public static void load() {
+
+    /**
+     * 从配置目录读取配置，在客户端初始化时调用一次。
+     * 读取之前使用默认配置，读取失败时保留默认配置。
+     */
+    public static void load(Path configDir) {
+        Path path = configDir.resolve(CONFIG_FILE);
+        configPath = path;
+        ClientConfigData loaded = null;
         try {
-            Path configPath = getConfigPath();
-            if (Files.exists(configPath)) {
-                String json = Files.readString(configPath);
-                configData = GSON.fromJson(json, ClientConfigData.class);
-                if (configData == null) {
-                    configData = new ClientConfigData();
-                }
+            if (Files.exists(path)) {
+                loaded = GSON.fromJson(Files.readString(path, StandardCharsets.UTF_8), ClientConfigData.class);
             }
         } catch (Exception e) {
             LOGGER.error("Failed to load client config", e);
-            configData = new ClientConfigData();
         }
+        publish(loaded != null ? loaded : new ClientConfigData());
     }
-    
+
+    /**
+     * 请求保存当前配置。短时间内的多次请求合并为一次写入，在后台线程执行。
+     */
     public static void save() {
+        long request = saveRequests.incrementAndGet();
+        // 写文件放在模组自己的线程池上，不占用 ForkJoinPool.commonPool；线程池在使用时才获取，关闭后会重新创建
+        Executor executor = NetworkExecutor.get()::executeOrSpawn;
+        CompletableFuture.delayedExecutor(SAVE_DELAY_MS, TimeUnit.MILLISECONDS, executor).execute(() -> {
+            // 之后还有新的保存请求时交给那一次去写
+            if (request == saveRequests.get()) {
+                writePending();
+            }
+        });
+    }
+
+    /**
+     * 立即写入还没保存的修改，游戏退出时调用。
+     */
+    public static void flush() {
+        writePending();
+    }
+
+    /**
+     * 注册配置变化的回调，在修改配置的线程上调用。
+     */
+    public static void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    private static void writePending() {
+        synchronized (writeLock) {
+            long request = saveRequests.get();
+            if (request == savedRequest) {
+                return;
+            }
+            Path path = configPath;
+            if (path == null) {
+                LOGGER.warn("配置尚未加载，跳过保存");
+                return;
+            }
+            try {
+                write(path, GSON.toJson(current.get()));
+                savedRequest = request;
+            } catch (Exception e) {
+                LOGGER.error("Failed to save client config", e);
+            }
+        }
+    }
+
+    // 先写临时文件再替换，写到一半退出也不会留下损坏的配置文件
+    private static void write(Path path, String json) throws IOException {
+        Files.createDirectories(path.getParent());
+        Path temp = path.resolveSibling(CONFIG_FILE + ".tmp");
+        Files.writeString(temp, json, StandardCharsets.UTF_8);
         try {
-            Path configPath = getConfigPath();
-            Files.createDirectories(configPath.getParent());
-            String json = GSON.toJson(configData);
-            Files.writeString(configPath, json);
-        } catch (Exception e) {
-            LOGGER.error("Failed to save client config", e);
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
         }
     }
-    
-    private static Path getConfigPath() {
-        return Paths.get(Minecraft.getInstance().gameDirectory.getAbsolutePath(), "config", CONFIG_FILE);
+
+    // 复制当前快照修改后整体替换，并发修改时重试
+    private static void update(Consumer<ClientConfigData> change) {
+        ClientConfigData prev;
+        ClientConfigData next;
+        do {
+            prev = current.get();
+            next = prev.copy();
+            change.accept(next);
+        } while (!current.compareAndSet(prev, next));
+        notifyListeners();
     }
-    
+
+    private static void publish(ClientConfigData data) {
+        current.set(data);
+        notifyListeners();
+    }
+
+    private static void notifyListeners() {
+        for (Runnable listener : listeners) {
+            try {
+                listener.run();
+            } catch (Exception e) {
+                LOGGER.error("配置变化回调出错", e);
+            }
+        }
+    }
+
     public static String getApiKey() {
-        return configData.apiKey;
+        return current.get().apiKey;
     }
-    
+
     public static void setApiKey(String apiKey) {
-        configData.apiKey = apiKey;
+        update(data -> data.apiKey = apiKey);
     }
-    
+
     public static String getServerUrl() {
-        return configData.serverUrl;
+        return current.get().serverUrl;
     }
-    
+
     public static void setServerUrl(String serverUrl) {
-        configData.serverUrl = serverUrl;
+        update(data -> data.serverUrl = serverUrl);
     }
-    
+
     public static String getChatEndpoint() {
-        return configData.chatEndpoint;
+        return current.get().chatEndpoint;
     }
-    
+
     public static String getFullChatUrl() {
-        String fullUrl = getServerUrl() + getChatEndpoint();
-        LOGGER.info("使用的完整聊天URL: {}", fullUrl);
-        return fullUrl;
+        // 地址和路径取自同一个快照
+        ClientConfigData data = current.get();
+        return data.serverUrl + data.chatEndpoint;
     }
-    
+
     public static void setChatEndpoint(String chatEndpoint) {
-        configData.chatEndpoint = chatEndpoint;
+        update(data -> data.chatEndpoint = chatEndpoint);
+    }
+
+    public static int getConnectTimeoutSeconds() {
+        return Math.max(1, current.get().connectTimeoutSeconds);
+    }
+
+    public static boolean isPreferHttp2() {
+        return current.get().preferHttp2;
+    }
+
+    public static int getNetworkThreads() {
+        return Math.max(1, Math.min(16, current.get().networkThreads));
+    }
+
+    public static boolean isUseVirtualThreads() {
+        return current.get().useVirtualThreads;
+    }
+
+    // 关闭聊天界面或新建对话时是否让进行中的回复继续在后台生成
+    public static boolean isBackgroundStreaming() {
+        return current.get().backgroundStreaming;
+    }
+
+    // 解析结果和布局缓存的内存预算（MB）
+    public static int getCacheBudgetMb() {
+        return Math.max(1, Math.min(1024, current.get().cacheBudgetMb));
+    }
+
+    // 客户端初始化时是否提前建立到服务器的连接
+    public static boolean isWarmUpConnection() {
+        return current.get().warmUpConnection;
+    }
+
+    public static RequestMode getRequestMode() {
+        RequestMode mode = current.get().requestMode;
+        return mode != null ? mode : RequestMode.AUTO;
     }
-    
+
+    // POST请求体较大时是否用gzip压缩，服务器不支持时自动关闭
+    public static boolean isCompressRequests() {
+        return current.get().compressRequests;
+    }
+
+    // 是否接受gzip/deflate压缩的流式响应
+    public static boolean isCompressResponses() {
+        return current.get().compressResponses;
+    }
+
+    // 流式响应超过这个时间没有任何数据就中止连接，0表示不限制
+    public static int getIdleTimeoutSeconds() {
+        return Math.max(0, current.get().idleTimeoutSeconds);
+    }
+
+    // 连接失败或服务器暂时不可用时最多重试几次
+    public static int getMaxRetries() {
+        return Math.max(0, Math.min(10, current.get().maxRetries));
+    }
+
+    // 是否把性能指标定期写入 logs/mcompanion-metrics.jsonl
+    public static boolean isMetricsLog() {
+        return current.get().metricsLog;
+    }
+
+    public static int getMetricsLogIntervalSeconds() {
+        return Math.max(10, Math.min(3600, current.get().metricsLogIntervalSeconds));
+    }
+
+    // 是否把已完成的消息绘制到离屏纹理中缓存，每帧只贴图
+    public static boolean isMessageTextureCache() {
+        return current.get().messageTextureCache;
+    }
+
+    // 消息纹理缓存的显存预算（MB）
+    public static int getTextureCacheBudgetMb() {
+        return Math.max(8, Math.min(512, current.get().textureCacheBudgetMb));
+    }
+
     public static void resetToDefaults() {
-        configData = new ClientConfigData();
+        publish(new ClientConfigData());
         save();
         LOGGER.info("配置已重置为默认值");
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,125 @@
+package com.swx.mcompanion.bench;
+
+import java.util.Random;
+
+/**
+ * 基准测试和对照测试共用的AI回复语料，按固定随机种子生成，保证每次运行内容一致。
+ */
+public enum ReplyCorpus {
+    // 简短的闲聊回复
+    SHORT_CHAT {
+        @Override
+        protected void generate(StringBuilder out, Random random) {
+            out.append("好的！在Minecraft里合成**工作台**只需要4块木板，把它们放在2x2的合成格子里就行。\n\n");
+            out.append("- 先砍树获得原木\n- 把原木放进合成格变成木板\n- 再用4块木板合成工作台\n\n");
+            out.append("有了工作台之后就可以合成 `木镐` 和其他工具了。");
+        }
+    },
+    // 很长的有序/无序列表
+    LONG_LIST {
+        @Override
+        protected void generate(StringBuilder out, Random random) {
+            out.append("## Redstone components\n\n");
+            for (int i = 1; i <= 300; i++) {
+                if (i % 25 == 0) {
+                    out.append("\n### Section ").append(i / 25).append("\n\n");
+                }
+                if (random.nextBoolean()) {
+                    out.append(i).append(". ");
+                } else {
+                    out.append(random.nextInt(3) == 0 ? "    - " : "- ");
+                }
+                appendWords(out, random, 8 + random.nextInt(20));
+                out.append('\n');
+            }
+        }
+    },
+    // 大段代码块
+    BIG_CODE {
+        @Override
+        protected void generate(StringBuilder out, Random random) {
+            out.append("Here is the full implementation:\n\n");
+            for (int block = 0; block < 10; block++) {
+                out.append("```java\n");
+                for (int line = 0; line < 100; line++) {
+                    for (int indent = random.nextInt(4); indent > 0; indent--) {
+                        out.append("    ");
+                    }
+                    out.append("int value").append(line).append(" = compute(").append(random.nextInt(1000))
+                            .append(", \"").append(WORDS[random.nextInt(WORDS.length)]).append("\");\n");
+                }
+                out.append("```\n\nThe block above ");
+                appendWords(out, random, 30);
+                out.append(".\n\n");
+            }
+        }
+    },
+    // 以中文为主的长段落
+    CJK {
+        @Override
+        protected void generate(StringBuilder out, Random random) {
+            for (int paragraph = 0; paragraph < 60; paragraph++) {
+                if (paragraph % 10 == 0) {
+                    out.append("# 第").append(paragraph / 10 + 1).append("章\n\n");
+                }
+                int length = 80 + random.nextInt(200);
+                for (int i = 0; i < length; i++) {
+                    if (random.nextInt(40) == 0) {
+                        out.append(random.nextBoolean() ? "**" : "`");
+                    }
+                    out.append(CJK_CHARS.charAt(random.nextInt(CJK_CHARS.length())));
+                }
+                out.append("。\n\n");
+            }
+        }
+    };
+
+    private static final String[] WORDS = {
+            "redstone", "piston", "observer", "comparator", "repeater", "hopper", "dropper",
+            "signal", "strength", "tick", "delay", "block", "update", "circuit", "clock", "the", "a", "and"
+    };
+    private static final String CJK_CHARS = "我的世界红石电路活塞侦测器比较器中继器漏斗投掷器信号强度延迟方块更新时钟，的了和是在有";
+
+    private String text;
+
+    protected abstract void generate(StringBuilder out, Random random);
+
+    public synchronized String text() {
+        if (text == null) {
+            StringBuilder out = new StringBuilder();
+            generate(out, new Random(ordinal() * 31L + 7));
+            text = out.toString();
+        }
+        return text;
+    }
+
+    /**
+     * 把回复切成模拟流式token的小片段（每片2~6个字符）。
+     */
+    public String[] tokens() {
+        String source = text();
+        Random random = new Random(ordinal());
+        java.util.List<String> tokens = new java.util.ArrayList<>();
+        int i = 0;
+        while (i < source.length()) {
+            int end = Math.min(source.length(), i + 2 + random.nextInt(5));
+            tokens.add(source.substring(i, end));
+            i = end;
+        }
+        return tokens.toArray(new String[0]);
+    }
+
+    private static void appendWords(StringBuilder out, Random random, int count) {
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                out.append(' ');
+            }
+            String word = WORDS[random.nextInt(WORDS.length)];
+            switch (random.nextInt(12)) {
+                case 0 -> out.append("**").append(word).append("**");
+                case 1 -> out.append('`').append(word).append('`');
+                default -> out.append(word);
+            }
+        }
+    }
+}
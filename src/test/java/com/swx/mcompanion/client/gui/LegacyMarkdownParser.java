@@ -0,0 +1,146 @@
+package com.swx.mcompanion.client.gui;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 改用 {@link MarkdownLexer} 之前基于正则的逐行解析器，原样保留作为对照。
+ * 不创建元素对象，每个元素输出一行描述，格式与 {@link MarkdownLexerGoldenTest} 中的描述一致。
+ */
+final class LegacyMarkdownParser {
+    private LegacyMarkdownParser() {
+    }
+
+    static List<String> describe(String content) {
+        List<String> elements = new ArrayList<>();
+        if (content == null || content.isEmpty()) {
+            return elements;
+        }
+
+        String[] lines = content.split("\n");
+        boolean inCodeBlock = false;
+        int listNumber = 1;
+
+        for (String line : lines) {
+            // 处理代码块
+            if (line.trim().startsWith("```")) {
+                inCodeBlock = !inCodeBlock;
+                if (!inCodeBlock) {
+                    elements.add("empty");
+                }
+                continue;
+            }
+
+            if (inCodeBlock) {
+                elements.add("code|" + line);
+                continue;
+            }
+
+            // 空行
+            if (line.trim().isEmpty()) {
+                elements.add("empty");
+                listNumber = 1; // 重置列表编号
+                continue;
+            }
+
+            // 分隔线
+            if (line.trim().matches("^[-*_]{3,}$")) {
+                elements.add("separator");
+                continue;
+            }
+
+            // 标题
+            if (line.trim().startsWith("#")) {
+                int level = 0;
+                while (level < line.length() && line.charAt(level) == '#') {
+                    level++;
+                }
+                String title = line.substring(level).trim();
+                elements.add("heading|" + level + "|" + title);
+                continue;
+            }
+
+            // 有序列表
+            if (line.trim().matches("^\\d+\\.\\s+.*")) {
+                int indent = getIndentLevel(line);
+                String text = line.trim().replaceFirst("^\\d+\\.\\s+", "");
+                elements.add("list|ordered " + listNumber++ + "|" + indent + "|" + text);
+                continue;
+            }
+
+            // 无序列表
+            if (line.trim().matches("^[-*+]\\s+.*")) {
+                int indent = getIndentLevel(line);
+                String text = line.trim().replaceFirst("^[-*+]\\s+", "");
+                elements.add("list|bullet|" + indent + "|" + text);
+                continue;
+            }
+
+            // 缩进列表项
+            if (line.matches("^\\s{2,}[-*+]\\s+.*")) {
+                int indent = getIndentLevel(line) + 1;
+                String text = line.trim().replaceFirst("^[-*+]\\s+", "");
+                elements.add("list|bullet|" + indent + "|" + text);
+                continue;
+            }
+
+            // 普通段落
+            int indent = getIndentLevel(line);
+            String text = line.trim();
+            elements.add("paragraph|" + indent + "|" + text + "|" + describeFragments(text));
+        }
+        return elements;
+    }
+
+    // 原先 ParagraphElement 中的行内格式解析
+    private static String describeFragments(String text) {
+        StringBuilder fragments = new StringBuilder();
+        StringBuilder current = new StringBuilder();
+        boolean inBold = false, inItalic = false, inCode = false;
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+
+            if (c == '*' && i + 1 < text.length() && text.charAt(i + 1) == '*') {
+                // 粗体标记
+                if (current.length() > 0) {
+                    fragments.append(MarkdownLexerGoldenTest.fragment(current.toString(), inBold, inItalic, inCode));
+                    current.setLength(0);
+                }
+                inBold = !inBold;
+                i++; // 跳过第二个*
+            } else if (c == '*') {
+                // 斜体标记
+                if (current.length() > 0) {
+                    fragments.append(MarkdownLexerGoldenTest.fragment(current.toString(), inBold, inItalic, inCode));
+                    current.setLength(0);
+                }
+                inItalic = !inItalic;
+            } else if (c == '`') {
+                // 代码标记
+                if (current.length() > 0) {
+                    fragments.append(MarkdownLexerGoldenTest.fragment(current.toString(), inBold, inItalic, inCode));
+                    current.setLength(0);
+                }
+                inCode = !inCode;
+            } else {
+                current.append(c);
+            }
+        }
+
+        if (current.length() > 0) {
+            fragments.append(MarkdownLexerGoldenTest.fragment(current.toString(), inBold, inItalic, inCode));
+        }
+        return fragments.toString();
+    }
+
+    private static int getIndentLevel(String line) {
+        int indent = 0;
+        for (char c : line.toCharArray()) {
+            if (c == ' ') indent++;
+            else if (c == '\t') indent += 4;
+            else break;
+        }
+        return indent / 4; // 每4个空格算一级缩进
+    }
+}
@@ -0,0 +1,168 @@
+package com.swx.mcompanion.client.gui;
+
+import com.swx.mcompanion.bench.ReplyCorpus;
+import com.swx.mcompanion.client.gui.AiChatScreen.CodeBlockElement;
+import com.swx.mcompanion.client.gui.AiChatScreen.EmptyLineElement;
+import com.swx.mcompanion.client.gui.AiChatScreen.HeadingElement;
+import com.swx.mcompanion.client.gui.AiChatScreen.ListElement;
+import com.swx.mcompanion.client.gui.AiChatScreen.MarkdownElement;
+import com.swx.mcompanion.client.gui.AiChatScreen.MarkdownParser;
+import com.swx.mcompanion.client.gui.AiChatScreen.ParagraphElement;
+import com.swx.mcompanion.client.gui.AiChatScreen.SeparatorElement;
+import com.swx.mcompanion.client.gui.AiChatScreen.TextFragment;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 对照测试：{@link MarkdownLexer} 与原先基于正则的解析器（{@link LegacyMarkdownParser}）对同一文本的结果应完全一致，
+ * 流式回复的增量解析结果也应与完整解析一致。代码块合并为一个元素后按行展开再比较。
+ */
+class MarkdownLexerGoldenTest {
+    private static final String[] EDGE_CASES = {
+            // 缩进的列表标记
+            "- item\n  - two spaces\n    - four spaces\n      * six spaces\n\t- tab\n \t+ space tab\n   1. three spaces ordered",
+            "  -no space\n  -\n  - \n    -    spaced out\n10. ten\n1.no space\n2.\tTab ordered",
+            // 末尾的空行
+            "paragraph\n\n\n",
+            "paragraph\n   \n\t\n",
+            "\n\n\n",
+            "- item\n\n1. restart\n2. numbering\n\n3. again\n",
+            // 没有结束的代码块
+            "text\n```java\nint a = 1;\n    return a;\n",
+            "```",
+            "```\n\n\n",
+            "  ```  \n  indented fence\n```trailing info",
+            "```\n```",
+            "```\na\n```\n```\nb\n```\nafter",
+            "```\ncode\n```\n\n```\n# not a heading\n- not a list\n```",
+            // 嵌套的粗体、斜体和行内代码
+            "**bold *italic* bold**",
+            "*italic **bold** italic*",
+            "`code **not bold** inside`",
+            "**`code in bold`** and *`code in italic`*",
+            "***both*** and ****four****",
+            "**unclosed bold and *unclosed italic and `unclosed code",
+            "a*b*c`d`e**f**g",
+            "* not a list*but italic",
+            // 其他
+            "# H1\n##H2 no space\n### H3 **bold**\n####",
+            "---\n***\n___\n- - -\n--\n-_*",
+            "line\r\n- item\r\n```\r\ncode\r\n```\r\n",
+            "中文段落，**加粗**和`代码`。\n    缩进的段落"
+    };
+
+    private static final String[] TOKENS = {
+            "\n", "\n\n", "```", "```java\n", "- ", "1. ", "12.", "\t", "  - ", "    * ", "+ ", "# ", "## ",
+            "###", "---", "___", "*-_", "**b**", "*i*", "`c`", "hello", " ", "world", "中文", "  ", "\r\n", "\r",
+            "***", "\u0085", "\u2028", "\u000B", "\f", "9", ".", " x"
+    };
+
+    @Test
+    void corpusRepliesMatchLegacyParser() {
+        for (ReplyCorpus corpus : ReplyCorpus.values()) {
+            assertMatchesLegacy(corpus.text());
+        }
+    }
+
+    @Test
+    void edgeCasesMatchLegacyParser() {
+        for (String text : EDGE_CASES) {
+            assertMatchesLegacy(text);
+        }
+    }
+
+    @Test
+    void randomDocumentsMatchLegacyParser() {
+        Random random = new Random(7);
+        for (int iteration = 0; iteration < 20000; iteration++) {
+            StringBuilder text = new StringBuilder();
+            int count = random.nextInt(25);
+            for (int i = 0; i < count; i++) {
+                text.append(TOKENS[random.nextInt(TOKENS.length)]);
+            }
+            assertMatchesLegacy(text.toString());
+        }
+    }
+
+    @Test
+    void streamingMatchesFullParse() {
+        for (ReplyCorpus corpus : ReplyCorpus.values()) {
+            assertStreamingMatches(corpus.text(), corpus.tokens());
+        }
+        Random random = new Random(11);
+        for (String text : EDGE_CASES) {
+            // 每次追加1~3个字符，覆盖在任意位置断开的情况
+            List<String> deltas = new ArrayList<>();
+            for (int i = 0; i < text.length(); ) {
+                int end = Math.min(text.length(), i + 1 + random.nextInt(3));
+                deltas.add(text.substring(i, end));
+                i = end;
+            }
+            assertStreamingMatches(text, deltas.toArray(new String[0]));
+        }
+    }
+
+    private static void assertMatchesLegacy(String text) {
+        List<String> expected = LegacyMarkdownParser.describe(text);
+        List<String> actual = describe(MarkdownParser.parseMarkdown(text).elements);
+        assertEquals(expected, actual, () -> "输入: " + escape(text));
+    }
+
+    // 每追加一段都与当前全文的完整解析结果一致
+    private static void assertStreamingMatches(String text, String[] deltas) {
+        IncrementalMarkdownParser parser = new IncrementalMarkdownParser();
+        StringBuilder received = new StringBuilder();
+        for (String delta : deltas) {
+            parser.append(delta);
+            received.append(delta);
+            String prefix = received.toString();
+            assertEquals(describe(MarkdownParser.parseMarkdown(prefix).elements),
+                    describe(parser.getFormattedContent().elements), () -> "已收到: " + escape(prefix));
+        }
+        assertEquals(text, parser.getText());
+    }
+
+    static List<String> describe(List<MarkdownElement> elements) {
+        List<String> out = new ArrayList<>();
+        for (MarkdownElement element : elements) {
+            if (element instanceof CodeBlockElement code) {
+                String[] lines = code.getCode().split("\n", -1);
+                assertEquals(code.getLineCount(), lines.length, "代码块行数");
+                for (String line : lines) {
+                    out.add("code|" + line);
+                }
+            } else if (element instanceof EmptyLineElement) {
+                out.add("empty");
+            } else if (element instanceof SeparatorElement) {
+                out.add("separator");
+            } else if (element instanceof HeadingElement heading) {
+                out.add("heading|" + heading.level + "|" + heading.text);
+            } else if (element instanceof ListElement list) {
+                out.add("list|" + (list.isOrdered ? "ordered " + list.number : "bullet") + "|"
+                        + list.indentLevel + "|" + list.text);
+            } else if (element instanceof ParagraphElement paragraph) {
+                StringBuilder fragments = new StringBuilder();
+                for (TextFragment fragment : MarkdownLexer.lexInline(paragraph.text, 0, paragraph.text.length())) {
+                    fragments.append(fragment(fragment.text, fragment.isBold, fragment.isItalic, fragment.isCode));
+                }
+                out.add("paragraph|" + paragraph.indentLevel + "|" + paragraph.text + "|" + fragments);
+            } else {
+                out.add("unknown|" + element.getClass().getSimpleName());
+            }
+        }
+        return out;
+    }
+
+    static String fragment(String text, boolean bold, boolean italic, boolean code) {
+        return "[" + text + (bold ? "|b" : "") + (italic ? "|i" : "") + (code ? "|c" : "") + "]";
+    }
+
+    private static String escape(String text) {
+        return text.replace("\r", "\\r").replace("\n", "\\n").replace("\t", "\\t");
+    }
+}
@@ -0,0 +1,253 @@
+package com.swx.mcompanion.client.network;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * SseDecoder 的分块测试：同一段事件流无论怎样切成数据块，解码结果都应与按规范逐行解析整段文本的结果一致。
+ */
+class SseDecoderTest {
+    private static final String[] PIECES = {
+            "data", "data:", "data: ", "event:", "event:ping", "id:", "id:7", "id:a\0b",
+            "retry:", "retry:1500", "retry:12x", ":comment", ":", "苦力怕", "é", "🙂", "x", " ",
+            "field:v", "da", "ta:"
+    };
+    private static final String[] LINE_ENDINGS = {"\n", "\r", "\r\n"};
+
+    @Test
+    void randomChunkSplitsMatchReference() {
+        Random random = new Random(7);
+        for (int iteration = 0; iteration < 20000; iteration++) {
+            StringBuilder text = new StringBuilder();
+            if (random.nextInt(20) == 0) {
+                text.append('\uFEFF');
+            }
+            int lines = random.nextInt(30);
+            for (int i = 0; i < lines; i++) {
+                int parts = random.nextInt(4);
+                for (int k = 0; k < parts; k++) {
+                    text.append(PIECES[random.nextInt(PIECES.length)]);
+                }
+                text.append(LINE_ENDINGS[random.nextInt(LINE_ENDINGS.length)]);
+            }
+            if (random.nextBoolean()) {
+                // 没有结束的最后一行不应产生事件
+                text.append("data:tail");
+            }
+            boolean strip = random.nextBoolean();
+            String document = text.toString();
+            Result expected = reference(document, strip);
+            Result actual = decodeRandomChunks(document.getBytes(StandardCharsets.UTF_8), strip, random);
+            assertEquals(expected.output, actual.output, () -> "strip=" + strip + ", 输入: " + escape(document));
+            assertEquals(expected.lastEventId, actual.lastEventId, () -> "最后事件ID, 输入: " + escape(document));
+        }
+    }
+
+    @Test
+    void lineEndingsSplitAtEveryPosition() {
+        for (String document : new String[]{
+                "data:a\r\ndata:b\r\n\r\ndata:c\r\n\r\n",
+                "data:a\rdata:b\r\rdata:c\r\r",
+                "data:a\ndata:b\n\ndata:c\n\n",
+                "data:a\r\n\rdata:b\n\r\ndata:c\r\r\n"}) {
+            assertEverySplitMatches(document);
+        }
+    }
+
+    @Test
+    void carriageReturnAtChunkEndIsOneLineEnding() {
+        List<String> output = new ArrayList<>();
+        SseDecoder decoder = new SseDecoder(recorder(output));
+        feed(decoder, "data:a\r");
+        feed(decoder, "\ndata:b\r");
+        feed(decoder, "\n\r");
+        feed(decoder, "\n");
+        assertEquals(List.of("message||a\nb"), output);
+    }
+
+    @Test
+    void byteOrderMarkIsSkippedOnlyAtStart() {
+        assertEverySplitMatches("\uFEFFdata:a\n\n\uFEFFdata:b\n\n");
+        assertEverySplitMatches("\uFEFF:ping\nid:1\ndata:x\n\n");
+
+        List<String> output = new ArrayList<>();
+        SseDecoder decoder = new SseDecoder(recorder(output));
+        byte[] bytes = "\uFEFFdata:a\n\n".getBytes(StandardCharsets.UTF_8);
+        for (byte b : bytes) {
+            decoder.feed(ByteBuffer.wrap(new byte[]{b}));
+        }
+        assertEquals(List.of("message||a"), output);
+    }
+
+    @Test
+    void multiByteCharactersSplitAcrossChunks() {
+        assertEverySplitMatches("data:苦力怕é🙂\n\nevent:通知\ndata: 🙂🙂\n\n");
+        assertEverySplitMatches("id:编号🙂\ndata:x\n\n");
+    }
+
+    @Test
+    void idAndRetryFields() {
+        List<String> output = new ArrayList<>();
+        SseDecoder decoder = new SseDecoder(recorder(output));
+        feed(decoder, "id:1\ndata:a\n\n");
+        feed(decoder, "data:b\n\n");
+        // 含NUL的ID被忽略，之前的ID继续生效
+        feed(decoder, "id:x\0y\ndata:c\n\n");
+        // 没有数据的事件同样更新最后事件ID
+        feed(decoder, "id:2\n\n");
+        assertEquals("2", decoder.getLastEventId());
+        // 空的 id 字段把最后事件ID清空
+        feed(decoder, "id\ndata:d\n\n");
+        feed(decoder, "retry:1500\nretry:12x\nretry:\nretry: 30\n");
+        // 还没有结束的事件里的ID不生效
+        feed(decoder, "id:3\ndata:e\n");
+        assertEquals("", decoder.getLastEventId());
+        assertEquals(List.of("message|1|a", "message|1|b", "message|1|c", "message||d", "retry 1500", "retry 30"),
+                output);
+
+        assertEverySplitMatches("id:10\nretry:2500\ndata:a\n\nid:\ndata:b\n\nretry:99999999999\n");
+    }
+
+    // 在每个字节位置切成两块，结果都与参考解析一致
+    private static void assertEverySplitMatches(String document) {
+        byte[] bytes = document.getBytes(StandardCharsets.UTF_8);
+        Result expected = reference(document, true);
+        assertFalse(expected.output.isEmpty(), "测试输入应至少产生一个结果");
+        for (int split = 0; split <= bytes.length; split++) {
+            List<String> output = new ArrayList<>();
+            SseDecoder decoder = new SseDecoder(recorder(output));
+            decoder.feed(ByteBuffer.wrap(bytes, 0, split));
+            decoder.feed(ByteBuffer.wrap(bytes, split, bytes.length - split));
+            int at = split;
+            assertEquals(expected.output, output, () -> "在第 " + at + " 字节切分, 输入: " + escape(document));
+            assertEquals(expected.lastEventId, decoder.getLastEventId(), () -> "在第 " + at + " 字节切分的最后事件ID");
+        }
+    }
+
+    // 随机大小的数据块，轮流使用堆内、只读和直接缓冲区
+    private static Result decodeRandomChunks(byte[] bytes, boolean strip, Random random) {
+        List<String> output = new ArrayList<>();
+        SseDecoder decoder = new SseDecoder(recorder(output), strip);
+        int position = 0;
+        while (position < bytes.length) {
+            int length = Math.min(bytes.length - position, 1 + random.nextInt(random.nextBoolean() ? 3 : 64));
+            ByteBuffer chunk;
+            switch (random.nextInt(3)) {
+                case 0 -> chunk = ByteBuffer.wrap(bytes, position, length);
+                case 1 -> chunk = ByteBuffer.wrap(Arrays.copyOfRange(bytes, position, position + length)).asReadOnlyBuffer();
+                default -> {
+                    chunk = ByteBuffer.allocateDirect(length);
+                    chunk.put(bytes, position, length);
+                    chunk.flip();
+                }
+            }
+            decoder.feed(chunk);
+            assertFalse(chunk.hasRemaining(), "数据块应被完全消费");
+            position += length;
+        }
+        return new Result(output, decoder.getLastEventId());
+    }
+
+    // 按规范逐行解析已经完整解码的文本
+    private static Result reference(String text, boolean strip) {
+        List<String> output = new ArrayList<>();
+        if (text.startsWith("\uFEFF")) {
+            text = text.substring(1);
+        }
+        StringBuilder data = new StringBuilder();
+        String type = "";
+        String idBuffer = "";
+        String lastEventId = "";
+        int position = 0;
+        while (true) {
+            int end = position;
+            while (end < text.length() && text.charAt(end) != '\r' && text.charAt(end) != '\n') {
+                end++;
+            }
+            if (end == text.length()) {
+                break;
+            }
+            String line = text.substring(position, end);
+            position = end + 1;
+            if (text.charAt(end) == '\r' && position < text.length() && text.charAt(position) == '\n') {
+                position++;
+            }
+            if (line.isEmpty()) {
+                lastEventId = idBuffer;
+                if (data.length() > 0) {
+                    output.add((type.isEmpty() ? "message" : type) + "|" + lastEventId + "|"
+                            + data.substring(0, data.length() - 1));
+                }
+                data.setLength(0);
+                type = "";
+                continue;
+            }
+            if (line.startsWith(":")) {
+                output.add("comment");
+                continue;
+            }
+            int colon = line.indexOf(':');
+            String field = colon < 0 ? line : line.substring(0, colon);
+            String value = colon < 0 ? "" : line.substring(colon + 1);
+            if (strip && value.startsWith(" ")) {
+                value = value.substring(1);
+            }
+            switch (field) {
+                case "data" -> data.append(value).append('\n');
+                case "event" -> type = value;
+                case "id" -> {
+                    if (value.indexOf('\0') < 0) {
+                        idBuffer = value;
+                    }
+                }
+                case "retry" -> {
+                    if (!value.isEmpty() && value.length() <= 18 && value.chars().allMatch(c -> c >= '0' && c <= '9')) {
+                        output.add("retry " + Long.parseLong(value));
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+        return new Result(output, lastEventId);
+    }
+
+    private static SseDecoder.Handler recorder(List<String> output) {
+        return new SseDecoder.Handler() {
+            @Override
+            public void onEvent(SseDecoder.Event event) {
+                output.add(event.type + "|" + event.lastEventId + "|" + event.data);
+            }
+
+            @Override
+            public void onRetry(long millis) {
+                output.add("retry " + millis);
+            }
+
+            @Override
+            public void onComment() {
+                output.add("comment");
+            }
+        };
+    }
+
+    private static void feed(SseDecoder decoder, String text) {
+        decoder.feed(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String escape(String text) {
+        return text.replace("\r", "\\r").replace("\n", "\\n").replace("\0", "\\0");
+    }
+
+    private record Result(List<String> output, String lastEventId) {
+    }
+}